@@ -18,10 +18,10 @@ package org.urban.data.db;
 import java.io.File;
 import java.util.Iterator;
 import org.urban.data.core.set.HashIDSet;
-import org.urban.data.core.set.HashObjectSet;
 import org.urban.data.core.set.IDSet;
 import org.urban.data.core.set.IdentifiableObjectSet;
 import org.urban.data.db.column.Column;
+import org.urban.data.db.column.ColumnIndex;
 import org.urban.data.db.eq.EQ;
 import org.urban.data.db.eq.EQReader;
 import org.urban.data.db.term.TermIndexReader;
@@ -34,24 +34,16 @@ import org.urban.data.db.term.TermIndexReader;
  */
 public class Database implements Iterable<Column> {
     
-    private final HashObjectSet<Column> _columns;
+    private final IdentifiableObjectSet<Column> _columns;
     
-    public <T extends EQ> Database(Iterable<T> nodes) {
+    public Database(ColumnIndex index) {
         
-        _columns = new HashObjectSet<>();
+        _columns = index.columns();
+    }
+    
+    public <T extends EQ> Database(Iterable<T> nodes) {
         
-        for (T node : nodes) {
-            for (int columnId : node.columns()) {
-                Column column;
-                if (!_columns.contains(columnId)) {
-                    column = new Column(columnId);
-                    _columns.add(column);
-                } else {
-                    column = _columns.get(columnId);
-                }
-                column.add(node.id());
-            }
-        }
+        this(new ColumnIndex(nodes));
     }
     
     public Database(EQReader reader) throws java.io.IOException {
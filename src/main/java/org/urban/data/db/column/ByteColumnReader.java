@@ -0,0 +1,398 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.core.value.ValueCounter;
+
+/**
+ * Reader for column files with the same format as the FlexibleColumnReader.
+ * Lines contain either (1) the value, (2) the value and count, or (3) the
+ * value identifier, value and count separated by a single-byte delimiter
+ * (default is tab).
+ *
+ * The reader scans the (decompressed) byte stream of the file in a reusable
+ * buffer. Line and field boundaries are found on the bytes directly, counts
+ * and identifier are parsed without creating strings, and all values are
+ * returned in the same mutable value holder. Values are UTF-8 encoded. The
+ * text of a value is only decoded on request.
+ *
+ * Unlike the FlexibleColumnReader the reader does not read ahead. The value
+ * that is returned by next() is only valid until the next call to hasNext()
+ * or next().
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ByteColumnReader extends ColumnReader<ValueCounter> {
+
+    public static final byte DEFAULT_DELIMITER = '\t';
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private byte[] _buffer = null;
+    private final byte[] _data;
+    private final int _dataLength;
+    private final byte _delimiter;
+    private int _end = 0;
+    private boolean _eof = false;
+    private final File _file;
+    private final int _hashLengthThreshold;
+    private final ValueHasher _hasher;
+    private boolean _hasValue = false;
+    private InputStream _in = null;
+    private int _scan = 0;
+    private int _start = 0;
+    private final int[] _tokenEnd = new int[4];
+    private final int[] _tokenStart = new int[4];
+    private final MutableValueCounter _value = new MutableValueCounter();
+
+    /**
+     * Initialize the input file and column delimiter for the reader. Values
+     * that exceed the hash length threshold are replaced by their hash using
+     * the given hasher.
+     *
+     * @param file
+     * @param columnId
+     * @param delimiter
+     * @param hashLengthThreshold
+     * @param hasher
+     */
+    public ByteColumnReader(
+            File file,
+            int columnId,
+            byte delimiter,
+            int hashLengthThreshold,
+            ValueHasher hasher
+    ) {
+
+        this(file, columnId, null, 0, delimiter, hashLengthThreshold, hasher);
+    }
+
+    /**
+     * Initialize a reader for column data that has already been read into
+     * memory. The first length bytes of the given array contain the
+     * decompressed content of the column file. The data is not copied.
+     *
+     * @param file
+     * @param columnId
+     * @param data
+     * @param length
+     * @param delimiter
+     * @param hashLengthThreshold
+     * @param hasher
+     */
+    public ByteColumnReader(
+            File file,
+            int columnId,
+            byte[] data,
+            int length,
+            byte delimiter,
+            int hashLengthThreshold,
+            ValueHasher hasher
+    ) {
+
+        super(columnId);
+
+        _file = file;
+        _data = data;
+        _dataLength = length;
+        _delimiter = delimiter;
+        _hashLengthThreshold = hashLengthThreshold;
+        _hasher = hasher;
+
+        this.reset();
+    }
+
+    public ByteColumnReader(
+            File file,
+            int columnId,
+            byte delimiter,
+            int hashLengthThreshold
+    ) {
+
+        this(file, columnId, delimiter, hashLengthThreshold, ValueHasher.getDefault());
+    }
+
+    public ByteColumnReader(File file, int columnId, int hashLengthThreshold) {
+
+        this(file, columnId, DEFAULT_DELIMITER, hashLengthThreshold);
+    }
+
+    public ByteColumnReader(File file) {
+
+        this(file, ColumnHelper.getColumnId(file), DEFAULT_DELIMITER, -1);
+    }
+
+    @Override
+    public ColumnReader<ValueCounter> cloneReader() {
+
+        return new ByteColumnReader(
+                _file,
+                this.columnId(),
+                _data,
+                _dataLength,
+                _delimiter,
+                _hashLengthThreshold,
+                _hasher
+        );
+    }
+
+    @Override
+    public void close() {
+
+        if (_in != null) {
+            try {
+                _in.close();
+            } catch (java.io.IOException ex) {
+            }
+            _in = null;
+        }
+        _eof = true;
+    }
+
+    /**
+     * The column file that is being read.
+     *
+     * @return
+     */
+    public File file() {
+
+        return _file;
+    }
+
+    /**
+     * Read more data into the buffer. Unread data is moved to the beginning
+     * of the buffer first. The buffer is extended if it is full.
+     */
+    private void fill() throws java.io.IOException {
+
+        if (_start > 0) {
+            System.arraycopy(_buffer, _start, _buffer, 0, _end - _start);
+            _end -= _start;
+            _scan -= _start;
+            _start = 0;
+        }
+        if (_end == _buffer.length) {
+            _buffer = Arrays.copyOf(_buffer, _buffer.length * 2);
+        }
+        int n = _in.read(_buffer, _end, _buffer.length - _end);
+        if (n < 0) {
+            _eof = true;
+        } else {
+            _end += n;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        if (!_hasValue) {
+            try {
+                _hasValue = this.readNext();
+            } catch (java.io.IOException ex) {
+                this.close();
+                throw new java.lang.RuntimeException(ex);
+            }
+        }
+        return _hasValue;
+    }
+
+    @Override
+    public final MutableValueCounter next() {
+
+        if (!this.hasNext()) {
+            return null;
+        }
+        _hasValue = false;
+        return _value;
+    }
+
+    private int parseInt(int start, int end) {
+
+        int pos = start;
+        boolean negative = false;
+        if ((pos < end) && (_buffer[pos] == '-')) {
+            negative = true;
+            pos++;
+        }
+        if (pos == end) {
+            throw this.numberFormatException(start, end);
+        }
+        // Same range as Integer.parseInt. Values outside the range are
+        // rejected instead of silently overflowing.
+        long limit = (negative) ? -(long)Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        while (pos < end) {
+            int digit = _buffer[pos++] - '0';
+            if ((digit < 0) || (digit > 9)) {
+                throw this.numberFormatException(start, end);
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                throw this.numberFormatException(start, end);
+            }
+        }
+        return (int)((negative) ? -value : value);
+    }
+
+    private NumberFormatException numberFormatException(int start, int end) {
+
+        return new NumberFormatException(
+                "For input string: \"" +
+                new String(_buffer, start, end - start, StandardCharsets.UTF_8) +
+                "\" in file " + _file.getAbsolutePath()
+        );
+    }
+
+    /**
+     * Parse the line in [start, end). Tokens are split in the same way as
+     * String.split(), i.e., trailing empty tokens are ignored.
+     */
+    private void parseLine(int start, int end) {
+
+        if ((end > start) && (_buffer[end - 1] == '\r')) {
+            end--;
+        }
+
+        int tokenCount = 0;
+        int nonEmptyCount = 0;
+        int pos = start;
+        while (true) {
+            int delim = pos;
+            while ((delim < end) && (_buffer[delim] != _delimiter)) {
+                delim++;
+            }
+            if (tokenCount < _tokenStart.length) {
+                _tokenStart[tokenCount] = pos;
+                _tokenEnd[tokenCount] = delim;
+            }
+            tokenCount++;
+            if (delim > pos) {
+                nonEmptyCount = tokenCount;
+            }
+            if (delim == end) {
+                break;
+            }
+            pos = delim + 1;
+        }
+        if (start < end) {
+            tokenCount = nonEmptyCount;
+        }
+
+        switch (tokenCount) {
+            case 1:
+                this.setValue(-1, _tokenStart[0], _tokenEnd[0], 1);
+                break;
+            case 2:
+                this.setValue(
+                        -1,
+                        _tokenStart[0],
+                        _tokenEnd[0],
+                        this.parseInt(_tokenStart[1], _tokenEnd[1])
+                );
+                break;
+            case 3:
+                this.setValue(
+                        this.parseInt(_tokenStart[0], _tokenEnd[0]),
+                        _tokenStart[1],
+                        _tokenEnd[1],
+                        this.parseInt(_tokenStart[2], _tokenEnd[2])
+                );
+                break;
+            default:
+                throw new java.lang.RuntimeException(
+                        "Unexpected token count in file " + _file.getAbsolutePath() +
+                        " (Line " + new String(_buffer, start, end - start, StandardCharsets.UTF_8) +
+                        "):" + tokenCount
+                );
+        }
+    }
+
+    /**
+     * Read the next line into the value holder. Returns false if the end of
+     * the file has been reached.
+     */
+    private boolean readNext() throws java.io.IOException {
+
+        while (true) {
+            while (_scan < _end) {
+                if (_buffer[_scan] == '\n') {
+                    int lineStart = _start;
+                    int lineEnd = _scan;
+                    _start = ++_scan;
+                    this.parseLine(lineStart, lineEnd);
+                    return true;
+                }
+                _scan++;
+            }
+            if (_eof) {
+                if (_start < _end) {
+                    int lineStart = _start;
+                    _start = _end;
+                    this.parseLine(lineStart, _end);
+                    return true;
+                }
+                this.close();
+                return false;
+            }
+            this.fill();
+        }
+    }
+
+    @Override
+    public final void reset() {
+
+        this.close();
+        if (_data != null) {
+            // All data is in memory already.
+            _buffer = _data;
+            _end = _dataLength;
+            _eof = true;
+        } else {
+            try {
+                _in = FileSystem.openFile(_file);
+            } catch (java.io.IOException ex) {
+                throw new java.lang.RuntimeException(ex);
+            }
+            if (_buffer == null) {
+                _buffer = new byte[BUFFER_SIZE];
+            }
+            _end = 0;
+            _eof = false;
+        }
+        _start = 0;
+        _scan = 0;
+        _hasValue = false;
+    }
+
+    private void setValue(int id, int start, int end, int count) {
+
+        // The number of characters is at most the number of bytes. The value
+        // only needs to be decoded if it may exceed the hash threshold.
+        if ((_hashLengthThreshold != -1) && (end - start >= _hashLengthThreshold)) {
+            String text = new String(_buffer, start, end - start, StandardCharsets.UTF_8);
+            if (text.length() >= _hashLengthThreshold) {
+                _value.set(id, _hasher.hash(text), count);
+                return;
+            }
+        }
+        _value.set(id, _buffer, start, end - start, count);
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.urban.data.core.set.HashIDSet;
+import org.urban.data.core.set.IDSet;
+import org.urban.data.core.set.IdentifiableObjectSet;
+import org.urban.data.core.set.ImmutableObjectSet;
+import org.urban.data.db.eq.CompactEQIndex;
+import org.urban.data.db.eq.EQ;
+import org.urban.data.db.eq.EQArrayConsumer;
+
+/**
+ * Immutable inverted index from columns to the equivalence classes (nodes)
+ * that occur in them. The index is stored as arrays in compressed sparse row
+ * layout. Column identifier are sorted. The nodes of the i-th column are the
+ * values between offsets[i] and offsets[i + 1] in the packed node array and
+ * they are sorted as well.
+ *
+ * The index can be persisted in a file next to the equivalence class file
+ * (see getFile). The file records size and modification time of the
+ * equivalence class file. It is ignored if the equivalence class file has
+ * changed since the index was written.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ColumnIndex {
+
+    /**
+     * Suffix that is appended to the name of the equivalence class file to
+     * get the name of the persisted column index.
+     */
+    public static final String FILE_SUFFIX = ".columns.bin";
+
+    public static final byte[] MAGIC = new byte[]{'U', 'D', 'C', 'I'};
+    public static final int VERSION = 1;
+
+    /**
+     * Buffer for (node, column) pairs that is used to invert a stream of
+     * equivalence classes.
+     */
+    private static class PairBuffer {
+
+        private int[] _columns = new int[1024];
+        private int _maxColumnId = -1;
+        private int[] _nodes = new int[1024];
+        private int _size = 0;
+
+        public void add(int nodeId, int[] columns, int columnCount) {
+
+            if (_size + columnCount > _nodes.length) {
+                int capacity = Math.max(_size + columnCount, _nodes.length * 2);
+                _nodes = Arrays.copyOf(_nodes, capacity);
+                _columns = Arrays.copyOf(_columns, capacity);
+            }
+            for (int iCol = 0; iCol < columnCount; iCol++) {
+                int columnId = columns[iCol];
+                if (columnId < 0) {
+                    throw new IllegalArgumentException("Invalid column identifier " + columnId);
+                }
+                _nodes[_size] = nodeId;
+                _columns[_size] = columnId;
+                _size++;
+                if (columnId > _maxColumnId) {
+                    _maxColumnId = columnId;
+                }
+            }
+        }
+
+        public ColumnIndex toIndex() {
+
+            // Counting sort of all pairs by column identifier.
+            int[] counts = new int[_maxColumnId + 1];
+            for (int iPair = 0; iPair < _size; iPair++) {
+                counts[_columns[iPair]]++;
+            }
+
+            int columnCount = 0;
+            for (int count : counts) {
+                if (count > 0) {
+                    columnCount++;
+                }
+            }
+
+            int[] columnIds = new int[columnCount];
+            int[] offsets = new int[columnCount + 1];
+            int[] start = new int[counts.length];
+            int index = 0;
+            for (int columnId = 0; columnId < counts.length; columnId++) {
+                if (counts[columnId] > 0) {
+                    columnIds[index] = columnId;
+                    start[columnId] = offsets[index];
+                    offsets[index + 1] = offsets[index] + counts[columnId];
+                    index++;
+                }
+            }
+
+            int[] nodes = new int[_size];
+            for (int iPair = 0; iPair < _size; iPair++) {
+                nodes[start[_columns[iPair]]++] = _nodes[iPair];
+            }
+
+            for (int iCol = 0; iCol < columnCount; iCol++) {
+                Arrays.sort(nodes, offsets[iCol], offsets[iCol + 1]);
+            }
+
+            return new ColumnIndex(columnIds, offsets, nodes);
+        }
+    }
+
+    private static final Logger LOGGER = Logger
+            .getLogger(ColumnIndex.class.getName());
+
+    private final int[] _columnIds;
+    private IdentifiableObjectSet<Column> _columns = null;
+    private final int[] _nodes;
+    private final int[] _offsets;
+    private final int[] _positions;
+
+    private ColumnIndex(int[] columnIds, int[] offsets, int[] nodes) {
+
+        _columnIds = columnIds;
+        _offsets = offsets;
+        _nodes = nodes;
+
+        int maxColumnId = -1;
+        if (columnIds.length > 0) {
+            maxColumnId = columnIds[columnIds.length - 1];
+        }
+        _positions = new int[maxColumnId + 1];
+        Arrays.fill(_positions, -1);
+        for (int iCol = 0; iCol < columnIds.length; iCol++) {
+            _positions[columnIds[iCol]] = iCol;
+        }
+    }
+
+    public <T extends EQ> ColumnIndex(Iterable<T> nodes) {
+
+        this(invert(nodes));
+    }
+
+    public ColumnIndex(CompactEQIndex eqIndex) {
+
+        this(invert(eqIndex));
+    }
+
+    private ColumnIndex(ColumnIndex index) {
+
+        _columnIds = index._columnIds;
+        _offsets = index._offsets;
+        _nodes = index._nodes;
+        _positions = index._positions;
+    }
+
+    /**
+     * Identifier of the column at the given position in the index.
+     *
+     * @param index
+     * @return
+     */
+    public int columnId(int index) {
+
+        return _columnIds[index];
+    }
+
+    public IDSet columnIds() {
+
+        return new HashIDSet(_columnIds);
+    }
+
+    /**
+     * Materialize the index as a set of column objects. The set is created
+     * on first access and then shared by all callers. The set is immutable.
+     * The column objects must not be modified either.
+     *
+     * @return
+     */
+    public synchronized IdentifiableObjectSet<Column> columns() {
+
+        if (_columns == null) {
+            Column[] columns = new Column[_columnIds.length];
+            for (int iCol = 0; iCol < _columnIds.length; iCol++) {
+                columns[iCol] = this.getColumn(iCol);
+            }
+            // Columns are sorted by their identifier.
+            _columns = new ImmutableObjectSet<>(columns, true);
+        }
+        return _columns;
+    }
+
+    public boolean contains(int columnId) {
+
+        return this.indexOf(columnId) != -1;
+    }
+
+    /**
+     * Get the column with the given identifier. The result is null if the
+     * index does not contain the column.
+     *
+     * @param columnId
+     * @return
+     */
+    public Column get(int columnId) {
+
+        int index = this.indexOf(columnId);
+        if (index == -1) {
+            return null;
+        }
+        return this.getColumn(index);
+    }
+
+    private Column getColumn(int index) {
+
+        Column column = new Column(_columnIds[index]);
+        for (int iNode = _offsets[index]; iNode < _offsets[index + 1]; iNode++) {
+            column.add(_nodes[iNode]);
+        }
+        return column;
+    }
+
+    /**
+     * Get the file that contains the persisted column index for the given
+     * equivalence class file.
+     *
+     * @param eqFile
+     * @return
+     */
+    public static File getFile(File eqFile) {
+
+        return new File(eqFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Position of the column with the given identifier in the index. The
+     * result is -1 if the index does not contain the column.
+     *
+     * @param columnId
+     * @return
+     */
+    public int indexOf(int columnId) {
+
+        if ((columnId < 0) || (columnId >= _positions.length)) {
+            return -1;
+        }
+        return _positions[columnId];
+    }
+
+    private static <T extends EQ> ColumnIndex invert(Iterable<T> nodes) {
+
+        PairBuffer buffer = new PairBuffer();
+        for (T node : nodes) {
+            int[] columns = node.columns().toArray();
+            buffer.add(node.id(), columns, columns.length);
+        }
+        return buffer.toIndex();
+    }
+
+    private static ColumnIndex invert(CompactEQIndex eqIndex) {
+
+        PairBuffer buffer = new PairBuffer();
+        eqIndex.stream(new EQArrayConsumer() {
+            @Override
+            public void consume(
+                    int id,
+                    int[] terms,
+                    int termCount,
+                    int[] columns,
+                    int columnCount
+            ) {
+                buffer.add(id, columns, columnCount);
+            }
+        });
+        return buffer.toIndex();
+    }
+
+    public int length() {
+
+        return _columnIds.length;
+    }
+
+    /**
+     * Load the column index for the given equivalence class file. Uses the
+     * persisted index if it exists and is up to date. Otherwise, the index is
+     * built from the given equivalence classes.
+     *
+     * @param eqFile
+     * @param eqIndex
+     * @return
+     */
+    public static ColumnIndex load(File eqFile, CompactEQIndex eqIndex) {
+
+        File file = getFile(eqFile);
+        if (file.exists()) {
+            try {
+                ColumnIndex index = read(file, eqFile);
+                if (index != null) {
+                    return index;
+                }
+                LOGGER.log(Level.INFO, "Ignore outdated column index {0}", file.getName());
+            } catch (java.io.IOException ex) {
+                LOGGER.log(Level.WARNING, "Ignore invalid column index " + file.getName(), ex);
+            }
+        }
+        return new ColumnIndex(eqIndex);
+    }
+
+    /**
+     * Number of nodes in the column at the given position in the index.
+     *
+     * @param index
+     * @return
+     */
+    public int nodeCount(int index) {
+
+        return _offsets[index + 1] - _offsets[index];
+    }
+
+    /**
+     * Copy of the sorted list of nodes in the column at the given position in
+     * the index.
+     *
+     * @param index
+     * @return
+     */
+    public int[] nodes(int index) {
+
+        return Arrays.copyOfRange(_nodes, _offsets[index], _offsets[index + 1]);
+    }
+
+    /**
+     * Weighted overlap between the node lists of the columns at the given
+     * positions in the index. The weight of each node is given by the weights
+     * array (usually the node sizes).
+     *
+     * @param index1
+     * @param index2
+     * @param weights
+     * @return
+     */
+    public int overlap(int index1, int index2, int[] weights) {
+
+        return WeightedOverlap.overlap(
+                _nodes,
+                _offsets[index1],
+                _offsets[index1 + 1],
+                _nodes,
+                _offsets[index2],
+                _offsets[index2 + 1],
+                weights
+        );
+    }
+
+    /**
+     * Read persisted column index. Returns null if the equivalence class file
+     * has been modified after the index was written.
+     *
+     * @param file
+     * @param eqFile
+     * @return
+     * @throws java.io.IOException
+     */
+    public static ColumnIndex read(File file, File eqFile) throws java.io.IOException {
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))
+        )) {
+            byte[] header = new byte[MAGIC.length];
+            in.readFully(header);
+            if (!Arrays.equals(header, MAGIC)) {
+                throw new java.io.IOException("Not a column index file");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new java.io.IOException("Unsupported column index version " + version);
+            }
+            long eqFileLength = in.readLong();
+            long eqFileModified = in.readLong();
+            if ((eqFileLength != eqFile.length()) || (eqFileModified != eqFile.lastModified())) {
+                return null;
+            }
+            int columnCount = in.readInt();
+            int nodeCount = in.readInt();
+            int[] columnIds = readArray(in, columnCount);
+            int[] offsets = readArray(in, columnCount + 1);
+            int[] nodes = readArray(in, nodeCount);
+            return new ColumnIndex(columnIds, offsets, nodes);
+        }
+    }
+
+    private static int[] readArray(DataInputStream in, int length) throws java.io.IOException {
+
+        int[] values = new int[length];
+        for (int iValue = 0; iValue < length; iValue++) {
+            values[iValue] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Weighted size for every column in the index, i.e., the sum of weights
+     * for all nodes in the column. The result is indexed by column position.
+     *
+     * @param weights
+     * @return
+     */
+    public int[] weightedSizes(int[] weights) {
+
+        int[] sizes = new int[_columnIds.length];
+        for (int iCol = 0; iCol < _columnIds.length; iCol++) {
+            sizes[iCol] = WeightedOverlap.size(
+                    _nodes,
+                    _offsets[iCol],
+                    _offsets[iCol + 1],
+                    weights
+            );
+        }
+        return sizes;
+    }
+
+    /**
+     * Persist the index for the given equivalence class file.
+     *
+     * @param file
+     * @param eqFile
+     * @throws java.io.IOException
+     */
+    public void write(File file, File eqFile) throws java.io.IOException {
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file))
+        )) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(eqFile.length());
+            out.writeLong(eqFile.lastModified());
+            out.writeInt(_columnIds.length);
+            out.writeInt(_nodes.length);
+            writeArray(out, _columnIds);
+            writeArray(out, _offsets);
+            writeArray(out, _nodes);
+        }
+    }
+
+    private static void writeArray(DataOutputStream out, int[] values) throws java.io.IOException {
+
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static final String COMMAND =
+            "Usage:\n" +
+            "  <eq-file>";
+
+    public static void main(String[] args) {
+
+        if (args.length != 1) {
+            System.out.println(COMMAND);
+            System.exit(-1);
+        }
+
+        File eqFile = new File(args[0]);
+
+        try {
+            new ColumnIndex(new CompactEQIndex(eqFile))
+                    .write(getFile(eqFile), eqFile);
+        } catch (java.io.IOException ex) {
+            LOGGER.log(Level.SEVERE, "RUN", ex);
+            System.exit(-1);
+        }
+    }
+}
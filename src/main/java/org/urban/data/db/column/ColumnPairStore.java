@@ -0,0 +1,523 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.core.set.HashIDSet;
+import org.urban.data.core.set.IDSet;
+import org.urban.data.db.eq.CompactEQIndex;
+
+/**
+ * Persistent store for the pairwise overlaps between columns. The store
+ * contains the weighted size of every column and the weighted overlap for
+ * every column pair with non-empty overlap. All other pairs have similarity
+ * zero. The Jaccard similarity and the histogram bucket of each pair are
+ * derived from sizes and overlap.
+ *
+ * After the underlying equivalence classes have been updated, the store is
+ * updated by recomputing only the pairs that involve a changed column. The
+ * overlaps of a changed column with all other columns are accumulated by
+ * scanning its nodes in an inverted index from nodes to columns. The
+ * similarity histogram is updated along with the pairs.
+ *
+ * Pairs are keyed by (columnId1 << 32 | columnId2) with columnId1 <
+ * columnId2.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ColumnPairStore {
+
+    public static final byte[] MAGIC = new byte[]{'U', 'D', 'P', 'S'};
+    public static final int VERSION = 1;
+
+    /**
+     * Growable list of pair keys and overlaps.
+     */
+    private static class PairBuffer {
+
+        private long[] _keys = new long[1024];
+        private int[] _overlaps = new int[1024];
+        private int _size = 0;
+
+        public void add(long key, int overlap) {
+
+            if (_size == _keys.length) {
+                _keys = Arrays.copyOf(_keys, _size * 2);
+                _overlaps = Arrays.copyOf(_overlaps, _size * 2);
+            }
+            _keys[_size] = key;
+            _overlaps[_size++] = overlap;
+        }
+    }
+
+    /**
+     * Compute the overlaps of changed columns with all other columns. Each
+     * task takes the next changed column from a shared counter. Pairs of two
+     * changed columns are only computed for the column with the smaller
+     * position.
+     */
+    private class OverlapTask implements Callable<PairBuffer> {
+
+        private final int[] _changed;
+        private final boolean[] _isChanged;
+        private final AtomicInteger _next;
+
+        public OverlapTask(int[] changed, boolean[] isChanged, AtomicInteger next) {
+
+            _changed = changed;
+            _isChanged = isChanged;
+            _next = next;
+        }
+
+        @Override
+        public PairBuffer call() {
+
+            PairBuffer result = new PairBuffer();
+            int[] overlaps = new int[_columnIds.length];
+            int[] touched = new int[_columnIds.length];
+
+            int index;
+            while ((index = _next.getAndIncrement()) < _changed.length) {
+                final int iCol = _changed[index];
+                int touchedCount = 0;
+                for (int nodeId : _columnIndex.nodes(iCol)) {
+                    final int weight = _nodeSizes[nodeId];
+                    for (int iPos = _nodeOffsets[nodeId]; iPos < _nodeOffsets[nodeId + 1]; iPos++) {
+                        final int jCol = _nodeColumns[iPos];
+                        if ((jCol == iCol) || ((_isChanged[jCol]) && (jCol < iCol))) {
+                            continue;
+                        }
+                        if (overlaps[jCol] == 0) {
+                            touched[touchedCount++] = jCol;
+                        }
+                        overlaps[jCol] += weight;
+                    }
+                }
+                for (int iTouched = 0; iTouched < touchedCount; iTouched++) {
+                    final int jCol = touched[iTouched];
+                    result.add(
+                            key(_columnIds[Math.min(iCol, jCol)], _columnIds[Math.max(iCol, jCol)]),
+                            overlaps[jCol]
+                    );
+                    overlaps[jCol] = 0;
+                }
+            }
+            return result;
+        }
+    }
+
+    private int[] _columnIds;
+    private ColumnIndex _columnIndex = null;
+    private int[] _columnSizes;
+    private JaccardHistogram _histogram;
+    private int[] _nodeColumns = null;
+    private int[] _nodeOffsets = null;
+    private int[] _nodeSizes = null;
+    private LongIntHashMap _overlaps;
+
+    private ColumnPairStore(
+            int[] columnIds,
+            int[] columnSizes,
+            LongIntHashMap overlaps
+    ) {
+
+        _columnIds = columnIds;
+        _columnSizes = columnSizes;
+        _overlaps = overlaps;
+
+        _histogram = new JaccardHistogram();
+        _overlaps.entries(new LongIntHashMap.EntryConsumer() {
+            @Override
+            public void consume(long key, int overlap) {
+                _histogram.add(bucket(key, overlap), 1);
+            }
+        });
+    }
+
+    /**
+     * Compute overlaps for all column pairs in the given index.
+     *
+     * @param columnIndex
+     * @param nodeSizes
+     * @param threads
+     * @throws java.lang.InterruptedException
+     */
+    public ColumnPairStore(
+            ColumnIndex columnIndex,
+            int[] nodeSizes,
+            int threads
+    ) throws java.lang.InterruptedException {
+
+        this(new int[0], new int[0], new LongIntHashMap());
+
+        this.update(columnIndex, nodeSizes, columnIndex.columnIds(), threads);
+    }
+
+    private int bucket(long key, int overlap) {
+
+        int index1 = Arrays.binarySearch(_columnIds, (int)(key >>> 32));
+        int index2 = Arrays.binarySearch(_columnIds, (int)key);
+        return JaccardHistogram.bucket(
+                _columnSizes[index1],
+                _columnSizes[index2],
+                overlap
+        );
+    }
+
+    /**
+     * Inverted index from node identifier to the positions of the columns
+     * that contain the node.
+     */
+    private void buildNodeIndex() {
+
+        _nodeOffsets = new int[_nodeSizes.length + 1];
+        for (int iCol = 0; iCol < _columnIndex.length(); iCol++) {
+            for (int nodeId : _columnIndex.nodes(iCol)) {
+                _nodeOffsets[nodeId + 1]++;
+            }
+        }
+        for (int iNode = 0; iNode < _nodeSizes.length; iNode++) {
+            _nodeOffsets[iNode + 1] += _nodeOffsets[iNode];
+        }
+        _nodeColumns = new int[_nodeOffsets[_nodeSizes.length]];
+        int[] pos = Arrays.copyOf(_nodeOffsets, _nodeSizes.length);
+        for (int iCol = 0; iCol < _columnIndex.length(); iCol++) {
+            for (int nodeId : _columnIndex.nodes(iCol)) {
+                _nodeColumns[pos[nodeId]++] = iCol;
+            }
+        }
+    }
+
+    public int[] columnIds() {
+
+        return _columnIds;
+    }
+
+    /**
+     * Similarity histogram for all column pairs. Pairs that are not in the
+     * store are counted in the first bucket.
+     *
+     * @return
+     */
+    public JaccardHistogram histogram() {
+
+        JaccardHistogram histogram = new JaccardHistogram();
+        histogram.merge(_histogram);
+        long columnCount = _columnIds.length;
+        long allPairs = (columnCount * (columnCount - 1)) / 2L;
+        histogram.add(0, allPairs - _overlaps.size());
+        return histogram;
+    }
+
+    private static long key(int columnId1, int columnId2) {
+
+        return ((long)columnId1 << 32) | (columnId2 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Number of column pairs with non-empty overlap.
+     *
+     * @return
+     */
+    public int pairCount() {
+
+        return _overlaps.size();
+    }
+
+    /**
+     * Read a persisted pair store.
+     *
+     * @param file
+     * @return
+     * @throws java.io.IOException
+     */
+    public static ColumnPairStore read(File file) throws java.io.IOException {
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))
+        )) {
+            byte[] header = new byte[MAGIC.length];
+            in.readFully(header);
+            if (!Arrays.equals(header, MAGIC)) {
+                throw new java.io.IOException("Not a column pair store file");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new java.io.IOException("Unsupported column pair store version " + version);
+            }
+            int columnCount = in.readInt();
+            int[] columnIds = new int[columnCount];
+            int[] columnSizes = new int[columnCount];
+            for (int iCol = 0; iCol < columnCount; iCol++) {
+                columnIds[iCol] = in.readInt();
+                columnSizes[iCol] = in.readInt();
+            }
+            int pairCount = in.readInt();
+            LongIntHashMap overlaps = new LongIntHashMap(pairCount);
+            for (int iPair = 0; iPair < pairCount; iPair++) {
+                long key = in.readLong();
+                overlaps.add(key, in.readInt());
+            }
+            return new ColumnPairStore(columnIds, columnSizes, overlaps);
+        }
+    }
+
+    /**
+     * Jaccard similarity for the given pair of columns.
+     *
+     * @param columnId1
+     * @param columnId2
+     * @return
+     */
+    public double similarity(int columnId1, int columnId2) {
+
+        long key = key(Math.min(columnId1, columnId2), Math.max(columnId1, columnId2));
+        int overlap = _overlaps.get(key);
+        if (overlap == 0) {
+            return 0;
+        }
+        int size1 = _columnSizes[Arrays.binarySearch(_columnIds, columnId1)];
+        int size2 = _columnSizes[Arrays.binarySearch(_columnIds, columnId2)];
+        return (double)overlap / (double)(size1 + size2 - overlap);
+    }
+
+    /**
+     * Update the store for a modified column index. Recomputes all pairs
+     * that involve one of the changed columns. Columns that were added or
+     * removed, or whose size has changed, are always treated as changed.
+     * Returns the number of columns for which pairs were recomputed.
+     *
+     * @param columnIndex
+     * @param nodeSizes
+     * @param changedColumns
+     * @param threads
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public synchronized int update(
+            ColumnIndex columnIndex,
+            int[] nodeSizes,
+            IDSet changedColumns,
+            int threads
+    ) throws java.lang.InterruptedException {
+
+        final int[] columnIds = columnIndex.columnIds().toArray();
+        Arrays.sort(columnIds);
+        final int[] columnSizes = columnIndex.weightedSizes(nodeSizes);
+
+        final HashIDSet changed = new HashIDSet();
+        for (int iCol = 0; iCol < columnIds.length; iCol++) {
+            int index = Arrays.binarySearch(_columnIds, columnIds[iCol]);
+            if ((index < 0) || (_columnSizes[index] != columnSizes[iCol])) {
+                changed.add(columnIds[iCol]);
+            } else if (changedColumns.contains(columnIds[iCol])) {
+                changed.add(columnIds[iCol]);
+            }
+        }
+        for (int columnId : _columnIds) {
+            if (!columnIndex.contains(columnId)) {
+                changed.add(columnId);
+            }
+        }
+
+        // Remove all pairs that involve a changed column.
+        final LongIntHashMap overlaps = new LongIntHashMap(_overlaps.size());
+        _overlaps.entries(new LongIntHashMap.EntryConsumer() {
+            @Override
+            public void consume(long key, int overlap) {
+                if ((changed.contains((int)(key >>> 32))) || (changed.contains((int)key))) {
+                    _histogram.add(bucket(key, overlap), -1);
+                } else {
+                    overlaps.add(key, overlap);
+                }
+            }
+        });
+
+        _columnIds = columnIds;
+        _columnSizes = columnSizes;
+        _overlaps = overlaps;
+        _columnIndex = columnIndex;
+        _nodeSizes = nodeSizes;
+
+        // Recompute pairs for changed columns that are in the index.
+        int[] changedPositions = new int[changed.length()];
+        int changedCount = 0;
+        boolean[] isChanged = new boolean[columnIds.length];
+        for (int iCol = 0; iCol < columnIds.length; iCol++) {
+            if (changed.contains(columnIds[iCol])) {
+                changedPositions[changedCount++] = iCol;
+                isChanged[iCol] = true;
+            }
+        }
+        changedPositions = Arrays.copyOf(changedPositions, changedCount);
+
+        if (changedCount > 0) {
+            this.buildNodeIndex();
+            AtomicInteger next = new AtomicInteger(0);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<PairBuffer>> tasks = new ArrayList<>();
+            for (int iThread = 0; iThread < threads; iThread++) {
+                tasks.add(executor.submit(new OverlapTask(changedPositions, isChanged, next)));
+            }
+            executor.shutdown();
+            try {
+                for (Future<PairBuffer> task : tasks) {
+                    PairBuffer pairs = task.get();
+                    for (int iPair = 0; iPair < pairs._size; iPair++) {
+                        _overlaps.add(pairs._keys[iPair], pairs._overlaps[iPair]);
+                        _histogram.add(bucket(pairs._keys[iPair], pairs._overlaps[iPair]), 1);
+                    }
+                }
+            } catch (java.util.concurrent.ExecutionException ex) {
+                throw new RuntimeException(ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        _columnIndex = null;
+        _nodeSizes = null;
+        _nodeOffsets = null;
+        _nodeColumns = null;
+
+        return changedCount;
+    }
+
+    /**
+     * Persist the store.
+     *
+     * @param file
+     * @throws java.io.IOException
+     */
+    public void write(File file) throws java.io.IOException {
+
+        try (final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file))
+        )) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(_columnIds.length);
+            for (int iCol = 0; iCol < _columnIds.length; iCol++) {
+                out.writeInt(_columnIds[iCol]);
+                out.writeInt(_columnSizes[iCol]);
+            }
+            out.writeInt(_overlaps.size());
+            final java.io.IOException[] error = new java.io.IOException[1];
+            _overlaps.entries(new LongIntHashMap.EntryConsumer() {
+                @Override
+                public void consume(long key, int overlap) {
+                    if (error[0] == null) {
+                        try {
+                            out.writeLong(key);
+                            out.writeInt(overlap);
+                        } catch (java.io.IOException ex) {
+                            error[0] = ex;
+                        }
+                    }
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+        }
+    }
+
+    private static final String COMMAND =
+            "Usage:\n" +
+            "  <eq-file>\n" +
+            "  <threads>\n" +
+            "  <pair-store-file>\n" +
+            "  <output-file>\n" +
+            "  {<changed-columns-file>}";
+
+    private static final Logger LOGGER = Logger
+            .getLogger(ColumnPairStore.class.getName());
+
+    public static void main(String[] args) {
+
+        if ((args.length < 4) || (args.length > 5)) {
+            System.out.println(COMMAND);
+            System.exit(-1);
+        }
+
+        File eqFile = new File(args[0]);
+        int threads = Integer.parseInt(args[1]);
+        File storeFile = new File(args[2]);
+        File outputFile = new File(args[3]);
+        File changedFile = null;
+        if (args.length == 5) {
+            changedFile = new File(args[4]);
+        }
+
+        try {
+            CompactEQIndex eqIndex = new CompactEQIndex(eqFile);
+            ColumnIndex columnIndex = ColumnIndex.load(eqFile, eqIndex);
+            ColumnPairStore store;
+            if ((changedFile != null) && (storeFile.exists())) {
+                HashIDSet changedColumns = new HashIDSet();
+                try (BufferedReader in = FileSystem.openReader(changedFile)) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        line = line.trim();
+                        if (!line.isEmpty()) {
+                            changedColumns.add(Integer.parseInt(line));
+                        }
+                    }
+                }
+                store = ColumnPairStore.read(storeFile);
+                int count = store.update(
+                        columnIndex,
+                        eqIndex.nodeSizes(),
+                        changedColumns,
+                        threads
+                );
+                System.out.println("RECOMPUTED PAIRS FOR " + count + " COLUMNS");
+            } else {
+                store = new ColumnPairStore(
+                        columnIndex,
+                        eqIndex.nodeSizes(),
+                        threads
+                );
+            }
+            store.write(storeFile);
+            try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
+                store.histogram().write(out);
+            }
+        } catch (java.lang.InterruptedException | java.io.IOException ex) {
+            LOGGER.log(Level.SEVERE, "RUN", ex);
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.urban.data.core.profiling.datatype.label.DataType;
+
+/**
+ * Profile for a single column file. Contains the number of distinct values,
+ * the total number of values (sum of value counts), the data type histogram
+ * for the distinct values in the column, and a sample of the first non-empty
+ * values.
+ *
+ * Data types may only be computed for a prefix of the distinct values in the
+ * column. The number of values that were type-checked is given by the
+ * profiled count. The text fraction is relative to the profiled count.
+ *
+ * Profiles are serialized as a single tab-delimited line containing (1) the
+ * column identifier, (2) the number of distinct values, (3) the total number
+ * of values, (4) the number of profiled values, (5) the number of text
+ * values, (6) the counts for each type in DATATYPES, (7) the column file
+ * path, and (8) the sample values.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ColumnProfile {
+
+    /**
+     * Data types for which counts are maintained in the type histogram.
+     */
+    public static final int[] DATATYPES = new int[]{
+        DataType.INTEGER,
+        DataType.LONG,
+        DataType.DECIMAL,
+        DataType.DATE,
+        DataType.GEO,
+        DataType.TEXT
+    };
+
+    private final int _columnId;
+    private final int _distinctCount;
+    private final File _file;
+    private final int _profiledCount;
+    private final List<String> _sample;
+    private final int _textCount;
+    private final long _totalCount;
+    private final int[] _typeCounts;
+
+    public ColumnProfile(
+            File file,
+            int columnId,
+            int distinctCount,
+            long totalCount,
+            int profiledCount,
+            int textCount,
+            int[] typeCounts,
+            List<String> sample
+    ) {
+
+        if (typeCounts.length != DATATYPES.length) {
+            throw new IllegalArgumentException("Invalid type histogram length " + typeCounts.length);
+        }
+
+        _file = file;
+        _columnId = columnId;
+        _distinctCount = distinctCount;
+        _totalCount = totalCount;
+        _profiledCount = profiledCount;
+        _textCount = textCount;
+        _typeCounts = typeCounts;
+        _sample = sample;
+    }
+
+    public int columnId() {
+
+        return _columnId;
+    }
+
+    public int distinctCount() {
+
+        return _distinctCount;
+    }
+
+    public File file() {
+
+        return _file;
+    }
+
+    /**
+     * Parse a profile from its serialization.
+     *
+     * @param line
+     * @return
+     */
+    public static ColumnProfile parse(String line) {
+
+        String[] tokens = line.split("\t", -1);
+        if (tokens.length < 6 + DATATYPES.length) {
+            throw new IllegalArgumentException("Invalid profile: " + line);
+        }
+        int[] typeCounts = new int[DATATYPES.length];
+        for (int iType = 0; iType < DATATYPES.length; iType++) {
+            typeCounts[iType] = Integer.parseInt(tokens[5 + iType]);
+        }
+        return new ColumnProfile(
+                new File(tokens[5 + DATATYPES.length]),
+                Integer.parseInt(tokens[0]),
+                Integer.parseInt(tokens[1]),
+                Long.parseLong(tokens[2]),
+                Integer.parseInt(tokens[3]),
+                Integer.parseInt(tokens[4]),
+                typeCounts,
+                new ArrayList<>(Arrays.asList(tokens).subList(6 + DATATYPES.length, tokens.length))
+        );
+    }
+
+    /**
+     * Test if the profile contains the data types for the given value limit,
+     * i.e., if the number of profiled values equals the number of values that
+     * are type-checked for the limit. If the limit is negative types are
+     * requested for all values. If the limit is zero no types are requested
+     * and the test is satisfied by any profile.
+     *
+     * @param limitCount
+     * @return
+     */
+    public boolean hasLimit(int limitCount) {
+
+        if (limitCount == 0) {
+            return true;
+        } else if (limitCount < 0) {
+            return (_profiledCount == _distinctCount);
+        } else {
+            return (_profiledCount == Math.min(limitCount, _distinctCount));
+        }
+    }
+
+    public int profiledCount() {
+
+        return _profiledCount;
+    }
+
+    /**
+     * Sample of the first non-empty values in the column.
+     *
+     * @return
+     */
+    public List<String> sample() {
+
+        return _sample;
+    }
+
+    public int textCount() {
+
+        return _textCount;
+    }
+
+    public long totalCount() {
+
+        return _totalCount;
+    }
+
+    /**
+     * Serialize the profile as a tab-delimited line.
+     *
+     * @return
+     */
+    public String toLine() {
+
+        StringBuilder line = new StringBuilder();
+        line.append(_columnId)
+                .append("\t").append(_distinctCount)
+                .append("\t").append(_totalCount)
+                .append("\t").append(_profiledCount)
+                .append("\t").append(_textCount);
+        for (int count : _typeCounts) {
+            line.append("\t").append(count);
+        }
+        line.append("\t").append(_file.getPath());
+        for (String value : _sample) {
+            line.append("\t").append(value);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Number of profiled values for the i-th type in DATATYPES.
+     *
+     * @param index
+     * @return
+     */
+    public int typeCount(int index) {
+
+        return _typeCounts[index];
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import org.urban.data.core.io.FileSystem;
+
+/**
+ * Persistent cache of column profiles. Profiles are keyed by the absolute
+ * path of the column file. A cached profile is only used for a file with the
+ * same path and column identifier, i.e., columns with the same identifier in
+ * different directories do not share entries. Each entry also records the
+ * size and last modification time of the column file at the time the profile
+ * was computed. A cached profile is only used if the column file is
+ * unchanged.
+ *
+ * A profile can answer a request for a given value limit if the number of
+ * type-checked values in the profile equals the number of values that would
+ * be type-checked for the limit (see ColumnProfile.hasLimit). A profile for
+ * all values therefore answers all requests with an unlimited or
+ * sufficiently large limit. Requests that do not need data types (limit
+ * zero) are answered by any profile. The cache keeps one profile for each
+ * number of type-checked values of a column file, i.e., runs with different
+ * limits do not replace each other's profiles. Profiles for an older
+ * version of the column file are removed when a new profile is added.
+ *
+ * The cache file is tab-delimited. Each line contains the file size, the
+ * modification time, and the serialized profile (see ColumnProfile). The
+ * profiles in the cache file contain the absolute path of the column file.
+ * Profiles for column files that no longer exist are not written.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ColumnProfileCache {
+
+    /**
+     * Cached profile together with the fingerprint of the profiled file.
+     */
+    private class CacheEntry {
+
+        private final long _lastModified;
+        private final ColumnProfile _profile;
+        private final long _size;
+
+        public CacheEntry(long size, long lastModified, ColumnProfile profile) {
+
+            _size = size;
+            _lastModified = lastModified;
+            _profile = profile;
+        }
+
+        private boolean isCurrent(File file) {
+
+            return (_size == file.length()) && (_lastModified == file.lastModified());
+        }
+    }
+
+    private final HashMap<String, List<CacheEntry>> _entries = new HashMap<>();
+    private final File _file;
+    private int _hitCount = 0;
+    private int _missCount = 0;
+
+    /**
+     * Initialize the cache file. Existing entries are read from the file if
+     * it exists.
+     *
+     * @param file
+     * @throws java.io.IOException
+     */
+    public ColumnProfileCache(File file) throws java.io.IOException {
+
+        _file = file;
+
+        if (file.exists()) {
+            try (BufferedReader in = FileSystem.openReader(file)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    String[] tokens = line.split("\t", 3);
+                    ColumnProfile profile = ColumnProfile.parse(tokens[2]);
+                    this.entries(profile.file().getPath()).add(
+                            new CacheEntry(
+                                    Long.parseLong(tokens[0]),
+                                    Long.parseLong(tokens[1]),
+                                    profile
+                            )
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the cached profile for the given column file. Returns null if no
+     * profile exists for the file path and column identifier, if the file has
+     * been modified, or if the profile was computed for a different value
+     * limit.
+     *
+     * @param file
+     * @param columnId
+     * @param limitCount
+     * @return
+     */
+    public ColumnProfile get(File file, int columnId, int limitCount) {
+
+        List<CacheEntry> entries = _entries.get(file.getAbsolutePath());
+        if (entries != null) {
+            for (CacheEntry entry : entries) {
+                ColumnProfile profile = entry._profile;
+                if ((profile.columnId() == columnId) && (entry.isCurrent(file))) {
+                    if (profile.hasLimit(limitCount)) {
+                        _hitCount++;
+                        return withFile(profile, file);
+                    }
+                }
+            }
+        }
+        _missCount++;
+        return null;
+    }
+
+    /**
+     * Number of requests that were answered from the cache.
+     *
+     * @return
+     */
+    public int hitCount() {
+
+        return _hitCount;
+    }
+
+    /**
+     * Number of requests that could not be answered from the cache.
+     *
+     * @return
+     */
+    public int missCount() {
+
+        return _missCount;
+    }
+
+    /**
+     * Add profile for a column file with the given size and modification
+     * time. Replaces an existing profile for the column file with the same
+     * number of type-checked values and all profiles for other versions of
+     * the file.
+     *
+     * @param profile
+     * @param size
+     * @param lastModified
+     */
+    public void put(ColumnProfile profile, long size, long lastModified) {
+
+        File file = profile.file().getAbsoluteFile();
+        List<CacheEntry> entries = this.entries(file.getPath());
+        Iterator<CacheEntry> iter = entries.iterator();
+        while (iter.hasNext()) {
+            CacheEntry entry = iter.next();
+            if ((entry._size != size) || (entry._lastModified != lastModified)) {
+                iter.remove();
+            } else if (entry._profile.columnId() != profile.columnId()) {
+                iter.remove();
+            } else if (entry._profile.profiledCount() == profile.profiledCount()) {
+                iter.remove();
+            }
+        }
+        entries.add(new CacheEntry(size, lastModified, withFile(profile, file)));
+    }
+
+    private List<CacheEntry> entries(String path) {
+
+        List<CacheEntry> entries = _entries.get(path);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            _entries.put(path, entries);
+        }
+        return entries;
+    }
+
+    private static int[] typeCounts(ColumnProfile profile) {
+
+        int[] counts = new int[ColumnProfile.DATATYPES.length];
+        for (int iType = 0; iType < counts.length; iType++) {
+            counts[iType] = profile.typeCount(iType);
+        }
+        return counts;
+    }
+
+    /**
+     * Copy of the given profile for a different path of the column file.
+     */
+    private static ColumnProfile withFile(ColumnProfile profile, File file) {
+
+        return new ColumnProfile(
+                file,
+                profile.columnId(),
+                profile.distinctCount(),
+                profile.totalCount(),
+                profile.profiledCount(),
+                profile.textCount(),
+                typeCounts(profile),
+                profile.sample()
+        );
+    }
+
+    /**
+     * Write all entries to the cache file. The cache file is replaced after
+     * all entries have been written.
+     *
+     * @throws java.io.IOException
+     */
+    public void write() throws java.io.IOException {
+
+        FileSystem.createParentFolder(_file);
+        File tmpFile = new File(
+                _file.getAbsoluteFile().getParentFile(),
+                "tmp." + _file.getName()
+        );
+        try (PrintWriter out = FileSystem.openPrintWriter(tmpFile)) {
+            for (List<CacheEntry> entries : _entries.values()) {
+                for (CacheEntry entry : entries) {
+                    if (!entry._profile.file().exists()) {
+                        continue;
+                    }
+                    out.println(
+                            entry._size + "\t" +
+                            entry._lastModified + "\t" +
+                            entry._profile.toLine()
+                    );
+                }
+            }
+        }
+        Files.move(tmpFile.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.urban.data.core.io.FileListReader;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.core.profiling.datatype.label.DataType;
+import org.urban.data.core.value.ValueCounter;
+
+/**
+ * Compute profiles for a list of column files in a single pass. Columns are
+ * read by a given number of parallel threads. For each column the profile
+ * contains the number of distinct values, the total number of values, the
+ * data type histogram, the number of text values, and a sample of the first
+ * non-empty values (see ColumnProfile). Data types are looked up in a shared
+ * data type cache.
+ *
+ * If a profile cache is given, unchanged columns are answered from the cache.
+ * Only new or modified column files are read (see ColumnProfileCache).
+ *
+ * The ColumnTypePrinter, ColumnSizePrinter, and TextColumnFinder are views
+ * over the computed profiles. Profiles can be written to a profile file that
+ * is used as input for these views instead of re-reading the column files.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ColumnProfiler {
+
+    /**
+     * Suffix for profile files (optionally followed by .gz).
+     */
+    public static final String PROFILE_SUFFIX = ".profile";
+
+    /**
+     * Number of values in the column sample.
+     */
+    public static final int SAMPLE_SIZE = 10;
+
+    /**
+     * Worker that profiles columns from a shared reader factory. Profiles are
+     * added to the result array at the position of the column file in the
+     * input list.
+     */
+    private class ProfileTask implements Callable<Void> {
+
+        private final int _limitCount;
+        private final ColumnProfile[] _profiles;
+
+        public ProfileTask(int limitCount, ColumnProfile[] profiles) {
+
+            _limitCount = limitCount;
+            _profiles = profiles;
+        }
+
+        @Override
+        public Void call() {
+
+            while (true) {
+                ByteColumnReader reader;
+                int index;
+                synchronized (_readers) {
+                    if (!_readers.hasNext()) {
+                        break;
+                    }
+                    reader = _readers.next();
+                    index = _readerCount++;
+                }
+                try {
+                    _profiles[index] = profile(reader, _types, _limitCount);
+                } catch (java.lang.NumberFormatException ex) {
+                    // Keep the name of the malformed column file.
+                    NumberFormatException error = new NumberFormatException(
+                            reader.file().getName() + ": " + ex.getMessage()
+                    );
+                    error.initCause(ex);
+                    throw error;
+                } finally {
+                    reader.close();
+                }
+            }
+            return null;
+        }
+    }
+
+    private final ColumnProfileCache _cache;
+    private final int _threads;
+    private final DataTypeCache _types;
+
+    private PrefetchingColumnReaderFactory _readers = null;
+    private int _readerCount = 0;
+
+    /**
+     * Initialize the number of threads, the optional profile cache, and the
+     * data type cache. The profile cache is updated with all computed
+     * profiles but it is not written to file.
+     *
+     * @param threads
+     * @param cache
+     * @param types
+     */
+    public ColumnProfiler(int threads, ColumnProfileCache cache, DataTypeCache types) {
+
+        _threads = threads;
+        _cache = cache;
+        _types = types;
+    }
+
+    public ColumnProfiler(int threads, ColumnProfileCache cache) {
+
+        this(threads, cache, DataTypeCache.getDefault());
+    }
+
+    public ColumnProfiler(int threads) {
+
+        this(threads, null);
+    }
+
+    public ColumnProfiler() {
+
+        this(1);
+    }
+
+    /**
+     * Test if the given file is a profile file based on the file suffix.
+     *
+     * @param file
+     * @return
+     */
+    public static boolean isProfileFile(File file) {
+
+        String name = file.getName();
+        return (name.endsWith(PROFILE_SUFFIX)) || (name.endsWith(PROFILE_SUFFIX + ".gz"));
+    }
+
+    /**
+     * Get profiles for the given input. If the input is a profile file the
+     * profiles are read from the file. The profiles in the file have to be
+     * computed for the given value limit (see ColumnProfile.hasLimit).
+     * Otherwise, the input is a column file
+     * or a directory of column files that are profiled. If the cache file is
+     * not null the profile cache is read from and written to that file.
+     *
+     * @param input
+     * @param limitCount
+     * @param threads
+     * @param cacheFile
+     * @return
+     * @throws java.io.IOException
+     */
+    public static List<ColumnProfile> load(
+            File input,
+            int limitCount,
+            int threads,
+            File cacheFile
+    ) throws java.io.IOException {
+
+        if (isProfileFile(input)) {
+            // Profiles that were computed for a different value limit would
+            // silently give different type counts.
+            List<ColumnProfile> profiles = read(input);
+            for (ColumnProfile profile : profiles) {
+                if (!profile.hasLimit(limitCount)) {
+                    throw new java.io.IOException(
+                            "Profile for column " + profile.columnId() +
+                            " in " + input.getName() +
+                            " does not match value limit " + limitCount +
+                            " (" + profile.profiledCount() + " of " +
+                            profile.distinctCount() + " values profiled)"
+                    );
+                }
+            }
+            return profiles;
+        }
+        ColumnProfileCache cache = null;
+        if (cacheFile != null) {
+            cache = new ColumnProfileCache(cacheFile);
+        }
+        List<ColumnProfile> profiles = new ColumnProfiler(threads, cache).run(
+                new FileListReader(".txt").listFiles(input),
+                limitCount
+        );
+        if (cache != null) {
+            cache.write();
+        }
+        return profiles;
+    }
+
+    public static List<ColumnProfile> load(
+            File input,
+            int limitCount,
+            int threads
+    ) throws java.io.IOException {
+
+        return load(input, limitCount, threads, null);
+    }
+
+    /**
+     * Compute the profile for a single column. Data types are determined for
+     * the first limitCount distinct values only. If limitCount is negative
+     * the types for all values are determined. If limitCount is zero no types
+     * are determined, e.g., if only the column sizes are needed.
+     *
+     * @param reader
+     * @param types
+     * @param limitCount
+     * @return
+     */
+    public static ColumnProfile profile(
+            ByteColumnReader reader,
+            DataTypeCache types,
+            int limitCount
+    ) {
+
+        int distinctCount = 0;
+        long totalCount = 0;
+        int profiledCount = 0;
+        int textCount = 0;
+        int[] typeCounts = new int[ColumnProfile.DATATYPES.length];
+        ArrayList<String> sample = new ArrayList<>();
+        while (reader.hasNext()) {
+            ValueCounter value = reader.next();
+            distinctCount++;
+            totalCount += value.getCount();
+            if ((sample.size() < SAMPLE_SIZE) && (!value.isEmpty())) {
+                sample.add(value.getText());
+            }
+            if ((limitCount >= 0) && (profiledCount >= limitCount)) {
+                continue;
+            }
+            DataType type = types.getType(value.getText());
+            int key = type.id();
+            for (int iType = 0; iType < ColumnProfile.DATATYPES.length; iType++) {
+                if (ColumnProfile.DATATYPES[iType] == key) {
+                    typeCounts[iType]++;
+                    break;
+                }
+            }
+            if (type.isText()) {
+                textCount++;
+            }
+            profiledCount++;
+        }
+        return new ColumnProfile(
+                reader.file(),
+                reader.columnId(),
+                distinctCount,
+                totalCount,
+                profiledCount,
+                textCount,
+                typeCounts,
+                sample
+        );
+    }
+
+    /**
+     * Read profiles from file.
+     *
+     * @param file
+     * @return
+     * @throws java.io.IOException
+     */
+    public static List<ColumnProfile> read(File file) throws java.io.IOException {
+
+        ArrayList<ColumnProfile> profiles = new ArrayList<>();
+        try (BufferedReader in = FileSystem.openReader(file)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    profiles.add(ColumnProfile.parse(line));
+                }
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Profile all columns in the given list of files. Returns the profiles in
+     * the order of the input files.
+     *
+     * @param files
+     * @param limitCount
+     * @return
+     * @throws java.io.IOException
+     */
+    public synchronized List<ColumnProfile> run(
+            List<File> files,
+            int limitCount
+    ) throws java.io.IOException {
+
+        ColumnProfile[] profiles = new ColumnProfile[files.size()];
+
+        // Get profiles for unchanged columns from the cache. The size and
+        // modification time are taken before the file is read.
+        ArrayList<File> scanFiles = new ArrayList<>();
+        ArrayList<Integer> scanIndex = new ArrayList<>();
+        long[] sizes = new long[files.size()];
+        long[] lastModified = new long[files.size()];
+        for (int iFile = 0; iFile < files.size(); iFile++) {
+            File file = files.get(iFile);
+            if (_cache != null) {
+                sizes[iFile] = file.length();
+                lastModified[iFile] = file.lastModified();
+                profiles[iFile] = _cache.get(
+                        file,
+                        ColumnHelper.getColumnId(file),
+                        limitCount
+                );
+            }
+            if (profiles[iFile] == null) {
+                scanFiles.add(file);
+                scanIndex.add(iFile);
+            }
+        }
+        if (_cache != null) {
+            System.out.println(
+                    "PROFILE CACHE HITS " + (files.size() - scanFiles.size()) +
+                    " OF " + files.size()
+            );
+        }
+
+        ColumnProfile[] scanProfiles = new ColumnProfile[scanFiles.size()];
+        this.scan(scanFiles, limitCount, scanProfiles);
+        if ((!scanFiles.isEmpty()) && (limitCount != 0)) {
+            System.out.println(
+                    "TYPE CACHE HITS " + _types.hitCount() +
+                    " OF " + (_types.hitCount() + _types.missCount()) +
+                    " (" + String.format("%.4f", _types.hitRate()) + ")"
+            );
+        }
+        for (int iFile = 0; iFile < scanProfiles.length; iFile++) {
+            int index = scanIndex.get(iFile);
+            profiles[index] = scanProfiles[iFile];
+            if (_cache != null) {
+                _cache.put(scanProfiles[iFile], sizes[index], lastModified[index]);
+            }
+        }
+
+        return Arrays.asList(profiles);
+    }
+
+    /**
+     * Profile the given list of files using the configured number of threads.
+     * Profiles are added to the given array in the order of the files.
+     */
+    private void scan(
+            List<File> files,
+            int limitCount,
+            ColumnProfile[] profiles
+    ) throws java.io.IOException {
+
+        if (files.isEmpty()) {
+            return;
+        }
+
+        _readers = new PrefetchingColumnReaderFactory(
+                files,
+                -1,
+                PrefetchingColumnReaderFactory.DEFAULT_PREFETCH * _threads,
+                _threads
+        );
+        _readerCount = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(_threads);
+        try {
+            ArrayList<Future<?>> tasks = new ArrayList<>();
+            for (int iThread = 0; iThread < _threads; iThread++) {
+                tasks.add(executor.submit(new ProfileTask(limitCount, profiles)));
+            }
+            executor.shutdown();
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (java.lang.InterruptedException ex) {
+            throw new java.io.InterruptedIOException(ex.getMessage());
+        } catch (java.util.concurrent.ExecutionException ex) {
+            if (ex.getCause() instanceof java.io.IOException) {
+                throw (java.io.IOException)ex.getCause();
+            } else if (ex.getCause() instanceof java.lang.NumberFormatException) {
+                throw (java.lang.NumberFormatException)ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            // Stop remaining workers before the readers are closed.
+            executor.shutdownNow();
+            _readers.close();
+            _readers = null;
+        }
+    }
+
+    /**
+     * Write profiles to the given output stream.
+     *
+     * @param profiles
+     * @param out
+     */
+    public static void write(List<ColumnProfile> profiles, PrintWriter out) {
+
+        for (ColumnProfile profile : profiles) {
+            out.println(profile.toLine());
+        }
+    }
+
+    private static final String COMMAND =
+            "Usage:\n" +
+            "  <column-file-or-dir>\n" +
+            "  <threads>\n" +
+            "  <output-file> [" + PROFILE_SUFFIX + " suffix for use as input to profile views]\n" +
+            "  {<limit-value-count-per-column>} [-1 for all values, 0 for none]\n" +
+            "  {<profile-cache-file>}";
+
+    private static final Logger LOGGER = Logger
+            .getLogger(ColumnProfiler.class.getName());
+
+    public static void main(String[] args) {
+
+        if ((args.length < 3) || (args.length > 5)) {
+            System.out.println(COMMAND);
+            System.exit(-1);
+        }
+
+        File inFile = new File(args[0]);
+        int threads = Integer.parseInt(args[1]);
+        File outputFile = new File(args[2]);
+        int limitCount = -1;
+        if (args.length >= 4) {
+            limitCount = Integer.parseInt(args[3]);
+        }
+        File cacheFile = null;
+        if (args.length == 5) {
+            cacheFile = new File(args[4]);
+        }
+
+        FileSystem.createParentFolder(outputFile);
+        try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
+            write(load(inFile, limitCount, threads, cacheFile), out);
+        } catch (java.io.IOException | java.lang.NumberFormatException ex) {
+            LOGGER.log(Level.SEVERE, "RUN", ex);
+            System.exit(-1);
+        }
+    }
+}
@@ -18,13 +18,18 @@ package org.urban.data.db.column;
 import java.io.File;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.urban.data.core.io.FileSystem;
+import org.urban.data.core.object.IdentifiableObjectImpl;
+import org.urban.data.core.set.IDSet;
 import org.urban.data.core.set.similarity.ParallelSetSimilarityComputer;
 import org.urban.data.core.set.similarity.SetSimilarityComputer;
 import org.urban.data.core.similarity.JaccardIndex;
-import org.urban.data.core.util.SimilarityHistogram;
+import org.urban.data.core.similarity.ObjectSimilarityConsumer;
+import org.urban.data.db.eq.CompactEQIndex;
 import org.urban.data.db.eq.EQIndex;
 
 /**
@@ -39,36 +44,38 @@ public class ColumnSimilarityHistorgamComputer {
     /**
      * Similarity function for database columns. Similarity is computed as
      * Jaccard Similarity between the column term sets.
+     * 
+     * The column objects are only used for their identifier. Overlaps are
+     * computed on the sorted node lists in the column index and column sizes
+     * are computed once up front.
      */
     private class JIColumnSimilarity implements SetSimilarityComputer<Column> {
 
+        private final ColumnIndex _columnIndex;
+        private final int[] _columnSizes;
         private final int[] _nodeSizes;
         
-        public JIColumnSimilarity(EQIndex eqIndex) {
+        public JIColumnSimilarity(ColumnIndex columnIndex, int[] nodeSizes) {
             
-            _nodeSizes = eqIndex.nodeSizes();
+            _columnIndex = columnIndex;
+            _nodeSizes = nodeSizes;
+            _columnSizes = columnIndex.weightedSizes(nodeSizes);
         }
         
         @Override
         public BigDecimal getSimilarity(Column col1, Column col2) {
 
-            int setSize1 = 0;
-            int setSize2 = 0;
-            int overlap = 0;
+            final int index1 = _columnIndex.indexOf(col1.id());
+            final int index2 = _columnIndex.indexOf(col2.id());
             
-            for (int nodeId : col1) {
-                final int termCount =  _nodeSizes[nodeId];
-                if (col2.contains(nodeId)) {
-                    overlap += termCount;
-                }
-                setSize1 += termCount;
-            }
-            for (int nodeId : col2) {
-                setSize2 += _nodeSizes[nodeId];
-            }
+            int overlap = _columnIndex.overlap(index1, index2, _nodeSizes);
             
             if (overlap > 0) {
-                return JaccardIndex.ji(setSize1, setSize2, overlap);
+                return JaccardIndex.ji(
+                        _columnSizes[index1],
+                        _columnSizes[index2],
+                        overlap
+                );
             } else {
                 return BigDecimal.ZERO;
             }
@@ -76,36 +83,188 @@ public class ColumnSimilarityHistorgamComputer {
 
     }
     
+    /**
+     * Compute the similarity histogram for all column pairs. Similarities are
+     * binned using primitive integer arithmetic (see JaccardHistogram). Pairs
+     * are scheduled by the work-stealing ColumnSimilarityScheduler.
+     * 
+     * @param columnIndex
+     * @param nodeSizes
+     * @param threads
+     * @return
+     * @throws java.lang.InterruptedException
+     * @throws java.io.IOException 
+     */
+    public JaccardHistogram run(
+            ColumnIndex columnIndex,
+            int[] nodeSizes,
+            int threads
+    ) throws java.lang.InterruptedException, java.io.IOException {
+        
+        return new ColumnSimilarityScheduler(columnIndex, nodeSizes).run(threads);
+    }
+
     public void run(
-            EQIndex eqIndex,
+            ColumnIndex columnIndex,
+            int[] nodeSizes,
             int threads,
             PrintWriter out
     ) throws java.lang.InterruptedException, java.io.IOException {
         
-        SimilarityHistogram histogram = new SimilarityHistogram();
+        this.run(columnIndex, nodeSizes, threads).write(out);
+    }
+    
+    /**
+     * Incremental mode. Update the given pair store by recomputing only the
+     * pairs that involve one of the changed columns and return the updated
+     * similarity histogram for all column pairs.
+     * 
+     * @param store
+     * @param columnIndex
+     * @param nodeSizes
+     * @param changedColumns
+     * @param threads
+     * @return
+     * @throws java.lang.InterruptedException 
+     */
+    public JaccardHistogram run(
+            ColumnPairStore store,
+            ColumnIndex columnIndex,
+            int[] nodeSizes,
+            IDSet changedColumns,
+            int threads
+    ) throws java.lang.InterruptedException {
+        
+        store.update(columnIndex, nodeSizes, changedColumns, threads);
+        return store.histogram();
+    }
+    
+    /**
+     * Compute similarity for all column pairs and pass each pair with its
+     * similarity (as BigDecimal) to the given consumer.
+     * 
+     * @param columnIndex
+     * @param nodeSizes
+     * @param threads
+     * @param consumer
+     * @throws java.lang.InterruptedException 
+     */
+    public void run(
+            ColumnIndex columnIndex,
+            int[] nodeSizes,
+            int threads,
+            ObjectSimilarityConsumer consumer
+    ) throws java.lang.InterruptedException {
+        
+        // Node lists are read from the column index. The column objects
+        // that are passed to the similarity computer are empty.
+        List<Column> columns = new ArrayList<>();
+        for (int iCol = 0; iCol < columnIndex.length(); iCol++) {
+            columns.add(new Column(columnIndex.columnId(iCol)));
+        }
         
         new ParallelSetSimilarityComputer<Column>().run(
-                eqIndex.columns().toList(),
-                new JIColumnSimilarity(eqIndex),
+                columns,
+                new JIColumnSimilarity(columnIndex, nodeSizes),
                 threads,
-                histogram
+                consumer
         );
+    }
+    
+    /**
+     * Approximate similarity histogram for all column pairs. Candidate pairs
+     * are generated by LSH banding over the MinHash signatures and their
+     * similarity is estimated as the fraction of matching signature entries.
+     * All other pairs are counted as having zero similarity.
+     * 
+     * @param signatures
+     * @param bands
+     * @return 
+     */
+    public JaccardHistogram runApproximate(
+            MinHashSignatures signatures,
+            int bands
+    ) {
+        
+        final JaccardHistogram histogram = new JaccardHistogram();
+        final int signatureSize = signatures.signatureSize();
+        
+        LongIntHashMap candidates = signatures.candidates(bands);
+        candidates.entries(new LongIntHashMap.EntryConsumer() {
+            @Override
+            public void consume(long key, int matches) {
+                histogram.add(JaccardHistogram.bucket(matches, signatureSize), 1);
+            }
+        });
+        
+        long columnCount = signatures.length();
+        long allPairs = (columnCount * (columnCount - 1)) / 2L;
+        histogram.add(0, allPairs - candidates.size());
+        return histogram;
+    }
+    
+    /**
+     * Pass all candidate pairs from LSH banding with an estimated similarity
+     * of at least the given threshold to the consumer. Returns the number of
+     * pairs that were passed to the consumer.
+     * 
+     * @param signatures
+     * @param bands
+     * @param threshold
+     * @param consumer
+     * @return 
+     */
+    public long runApproximate(
+            MinHashSignatures signatures,
+            int bands,
+            double threshold,
+            ObjectSimilarityConsumer consumer
+    ) {
+        
+        final int signatureSize = signatures.signatureSize();
+        final long[] count = new long[]{0};
+        
+        signatures.candidates(bands).entries(new LongIntHashMap.EntryConsumer() {
+            @Override
+            public void consume(long key, int matches) {
+                double sim = (double)matches / (double)signatureSize;
+                if (sim >= threshold) {
+                    int columnId1 = signatures.columnId((int)(key >>> 32));
+                    int columnId2 = signatures.columnId((int)key);
+                    consumer.consume(
+                            new IdentifiableObjectImpl(Math.min(columnId1, columnId2)),
+                            new IdentifiableObjectImpl(Math.max(columnId1, columnId2)),
+                            new BigDecimal(sim)
+                    );
+                    count[0]++;
+                }
+            }
+        });
+        return count[0];
+    }
+    
+    public void run(
+            EQIndex eqIndex,
+            int threads,
+            PrintWriter out
+    ) throws java.lang.InterruptedException, java.io.IOException {
         
-        histogram.write(out);
+        this.run(eqIndex.columnIndex(), eqIndex.nodeSizes(), threads, out);
     }
     
     private static final String COMMAND =
             "Usage:\n" +
             "  <eq-file>\n" +
             "  <threads>\n" +
-            "  {<output-file>}";
+            "  {<output-file>}\n" +
+            "  {<minhash-signature-size>:<bands>}";
     
     private static final Logger LOGGER = Logger
             .getLogger(ColumnSimilarityHistorgamComputer.class.getName());
     
     public static void main(String[] args) {
         
-        if ((args.length < 2) || (args.length > 3)) {
+        if ((args.length < 2) || (args.length > 4)) {
             System.out.println(COMMAND);
             System.exit(-1);
         }
@@ -113,9 +272,17 @@ public class ColumnSimilarityHistorgamComputer {
         File eqFile = new File(args[0]);
         int threads = Integer.parseInt(args[1]);
         File outputFile = null;
-        if (args.length == 3) {
+        if (args.length >= 3) {
             outputFile = new File(args[2]);
         }
+        // Approximate mode using MinHash signatures and LSH banding
+        int signatureSize = -1;
+        int bands = -1;
+        if (args.length == 4) {
+            String[] tokens = args[3].split(":");
+            signatureSize = Integer.parseInt(tokens[0]);
+            bands = Integer.parseInt(tokens[1]);
+        }
 
         
         try {
@@ -125,8 +292,23 @@ public class ColumnSimilarityHistorgamComputer {
             } else {
                 out = new PrintWriter(System.out);
             }
-            new ColumnSimilarityHistorgamComputer()
-                    .run(new EQIndex(eqFile), threads, out);
+            CompactEQIndex eqIndex = new CompactEQIndex(eqFile);
+            ColumnIndex columnIndex = ColumnIndex.load(eqFile, eqIndex);
+            ColumnSimilarityHistorgamComputer computer;
+            computer = new ColumnSimilarityHistorgamComputer();
+            if (signatureSize > 0) {
+                MinHashSignatures signatures = MinHashSignatures.load(
+                        eqFile,
+                        columnIndex,
+                        eqIndex.nodeSizes(),
+                        signatureSize,
+                        MinHashSignatures.DEFAULT_SEED,
+                        threads
+                );
+                computer.runApproximate(signatures, bands).write(out);
+            } else {
+                computer.run(columnIndex, eqIndex.nodeSizes(), threads, out);
+            }
             out.close();
         } catch (java.lang.InterruptedException | java.io.IOException ex) {
             LOGGER.log(Level.SEVERE, "RUN", ex);
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.core.object.IdentifiableObjectImpl;
+import org.urban.data.core.similarity.ObjectSimilarityConsumer;
+import org.urban.data.core.similarity.SimilarityWriter;
+import org.urban.data.db.eq.CompactEQIndex;
+import org.urban.data.db.eq.EQIndex;
+
+/**
+ * Find all column pairs with a Jaccard similarity of at least a given
+ * threshold. The Jaccard similarity is weighted by the number of terms in
+ * each node.
+ *
+ * Implements the AllPairs algorithm with size filtering and prefix filtering.
+ * Nodes are ordered globally by the number of columns they occur in (rare
+ * nodes first). For a column x with weighted size |x| and a threshold t, any
+ * column y with J(x, y) >= t has to share at least t * |x| with x. The prefix
+ * of x is the shortest list of first nodes in the global order such that the
+ * weight of the remaining nodes is less than t * |x|. Two columns can only
+ * be similar if their prefixes share a node. Columns are processed in order
+ * of increasing size and each column is compared only against smaller
+ * columns that share a prefix node and have a size of at least t * |x|.
+ * Candidate pairs are verified using the sorted node lists in the column
+ * index.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ColumnSimilarityJoin {
+
+    /**
+     * Probe the prefix index for columns that are assigned to the task.
+     * Columns are assigned one at a time in order of increasing size.
+     */
+    private class ProbeTask implements Callable<Integer> {
+
+        private final ObjectSimilarityConsumer _consumer;
+        private final AtomicInteger _nextColumn;
+
+        public ProbeTask(
+                AtomicInteger nextColumn,
+                ObjectSimilarityConsumer consumer
+        ) {
+
+            _nextColumn = nextColumn;
+            _consumer = consumer;
+        }
+
+        @Override
+        public Integer call() {
+
+            final int columnCount = _order.length;
+
+            // Position of the probe column for which a candidate was last
+            // seen. Used to avoid verifying the same candidate twice.
+            int[] lastSeen = new int[columnCount];
+            Arrays.fill(lastSeen, -1);
+            int[] candidates = new int[columnCount];
+
+            int resultCount = 0;
+            int pos;
+            while ((pos = _nextColumn.getAndIncrement()) < columnCount) {
+                final int index1 = _order[pos];
+                final int size1 = _columnSizes[index1];
+                if (size1 == 0) {
+                    continue;
+                }
+                final int minOverlap = minOverlap(size1);
+                int candidateCount = 0;
+                for (int iNode = _prefixOffsets[pos]; iNode < _prefixOffsets[pos + 1]; iNode++) {
+                    final int node = _prefixNodes[iNode];
+                    final int end = _postingOffsets[node + 1];
+                    // Skip columns that are too small (size filter)
+                    int iPost = firstPosting(node, minOverlap);
+                    for (; iPost < end; iPost++) {
+                        final int candidate = _postings[iPost];
+                        if (candidate >= pos) {
+                            break;
+                        }
+                        if (lastSeen[candidate] != pos) {
+                            lastSeen[candidate] = pos;
+                            candidates[candidateCount++] = candidate;
+                        }
+                    }
+                }
+                for (int iCand = 0; iCand < candidateCount; iCand++) {
+                    final int index2 = _order[candidates[iCand]];
+                    final int size2 = _columnSizes[index2];
+                    final int overlap = _columnIndex.overlap(index1, index2, _nodeSizes);
+                    if (overlap >= minOverlap) {
+                        double sim = (double)overlap / (double)(size1 + size2 - overlap);
+                        if (sim >= _threshold) {
+                            this.emit(index1, index2, sim);
+                            resultCount++;
+                        }
+                    }
+                }
+            }
+            return resultCount;
+        }
+
+        private void emit(int index1, int index2, double sim) {
+
+            int columnId1 = _columnIndex.columnId(index1);
+            int columnId2 = _columnIndex.columnId(index2);
+            if (columnId1 > columnId2) {
+                int tmp = columnId1;
+                columnId1 = columnId2;
+                columnId2 = tmp;
+            }
+            _consumer.consume(
+                    new IdentifiableObjectImpl(columnId1),
+                    new IdentifiableObjectImpl(columnId2),
+                    new BigDecimal(sim)
+            );
+        }
+    }
+
+    private final ColumnIndex _columnIndex;
+    private final int[] _columnSizes;
+    private final int[] _nodeSizes;
+    private final int[] _order;
+    private final int[] _postingOffsets;
+    private final int[] _postings;
+    private final int[] _prefixNodes;
+    private final int[] _prefixOffsets;
+    private final double _threshold;
+
+    public ColumnSimilarityJoin(
+            ColumnIndex columnIndex,
+            int[] nodeSizes,
+            double threshold
+    ) {
+
+        if ((threshold <= 0) || (threshold > 1)) {
+            throw new IllegalArgumentException("Invalid threshold " + threshold);
+        }
+
+        _columnIndex = columnIndex;
+        _nodeSizes = nodeSizes;
+        _threshold = threshold;
+        _columnSizes = columnIndex.weightedSizes(nodeSizes);
+
+        final int columnCount = columnIndex.length();
+
+        // Order columns by increasing size (and position in the column index
+        // for columns of equal size).
+        long[] keys = new long[columnCount];
+        for (int iCol = 0; iCol < columnCount; iCol++) {
+            keys[iCol] = ((long)_columnSizes[iCol] << 32) | iCol;
+        }
+        Arrays.sort(keys);
+        _order = new int[columnCount];
+        for (int iCol = 0; iCol < columnCount; iCol++) {
+            _order[iCol] = (int)keys[iCol];
+        }
+
+        // Global node order by increasing number of columns that a node
+        // occurs in.
+        int[] frequency = new int[nodeSizes.length];
+        for (int iCol = 0; iCol < columnCount; iCol++) {
+            for (int node : columnIndex.nodes(iCol)) {
+                frequency[node]++;
+            }
+        }
+        keys = new long[nodeSizes.length];
+        for (int node = 0; node < nodeSizes.length; node++) {
+            keys[node] = ((long)frequency[node] << 32) | node;
+        }
+        Arrays.sort(keys);
+        int[] rank = new int[nodeSizes.length];
+        int[] nodeAtRank = new int[nodeSizes.length];
+        for (int iRank = 0; iRank < keys.length; iRank++) {
+            int node = (int)keys[iRank];
+            rank[node] = iRank;
+            nodeAtRank[iRank] = node;
+        }
+
+        // Compute the prefix for each column (in processing order). Prefix
+        // nodes are stored as their rank in the global order.
+        _prefixOffsets = new int[columnCount + 1];
+        int[] prefixNodes = new int[1024];
+        int[] postingCounts = new int[nodeSizes.length + 1];
+        for (int pos = 0; pos < columnCount; pos++) {
+            final int index = _order[pos];
+            final int size = _columnSizes[index];
+            int[] nodes = columnIndex.nodes(index);
+            for (int iNode = 0; iNode < nodes.length; iNode++) {
+                nodes[iNode] = rank[nodes[iNode]];
+            }
+            Arrays.sort(nodes);
+            int prefixLength = 0;
+            if (size > 0) {
+                final int minOverlap = minOverlap(size);
+                int suffix = size;
+                while (suffix >= minOverlap) {
+                    suffix -= nodeSizes[nodeAtRank[nodes[prefixLength]]];
+                    prefixLength++;
+                }
+            }
+            int start = _prefixOffsets[pos];
+            if (start + prefixLength > prefixNodes.length) {
+                prefixNodes = Arrays.copyOf(
+                        prefixNodes,
+                        Math.max(start + prefixLength, prefixNodes.length * 2)
+                );
+            }
+            System.arraycopy(nodes, 0, prefixNodes, start, prefixLength);
+            _prefixOffsets[pos + 1] = start + prefixLength;
+            for (int iNode = 0; iNode < prefixLength; iNode++) {
+                postingCounts[nodes[iNode] + 1]++;
+            }
+        }
+        _prefixNodes = Arrays.copyOf(prefixNodes, _prefixOffsets[columnCount]);
+
+        // Inverted index from prefix nodes to columns (identified by their
+        // position in the processing order). Lists are sorted by position.
+        _postingOffsets = new int[nodeSizes.length + 1];
+        for (int iRank = 0; iRank < nodeSizes.length; iRank++) {
+            _postingOffsets[iRank + 1] = _postingOffsets[iRank] + postingCounts[iRank + 1];
+        }
+        _postings = new int[_prefixNodes.length];
+        int[] fill = Arrays.copyOf(_postingOffsets, nodeSizes.length);
+        for (int pos = 0; pos < columnCount; pos++) {
+            for (int iNode = _prefixOffsets[pos]; iNode < _prefixOffsets[pos + 1]; iNode++) {
+                _postings[fill[_prefixNodes[iNode]]++] = pos;
+            }
+        }
+    }
+
+    public ColumnSimilarityJoin(EQIndex eqIndex, double threshold) {
+
+        this(eqIndex.columnIndex(), eqIndex.nodeSizes(), threshold);
+    }
+
+    /**
+     * Position of the first entry in the posting list of the given node that
+     * references a column with a size of at least minSize.
+     *
+     * @param node
+     * @param minSize
+     * @return
+     */
+    private int firstPosting(int node, int minSize) {
+
+        int low = _postingOffsets[node];
+        int high = _postingOffsets[node + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (_columnSizes[_order[_postings[mid]]] < minSize) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Minimum overlap that a column of the given size has to have with any
+     * column of equal or smaller size to reach the similarity threshold. The
+     * value is rounded down slightly to be robust against floating point
+     * errors.
+     *
+     * @param size
+     * @return
+     */
+    private int minOverlap(int size) {
+
+        return Math.max(1, (int)Math.ceil(_threshold * size - 1e-9));
+    }
+
+    /**
+     * Pass all column pairs with a similarity of at least the threshold to
+     * the given consumer. The consumer has to be thread-safe. Returns the
+     * number of qualifying pairs.
+     *
+     * @param threads
+     * @param consumer
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public long run(
+            int threads,
+            ObjectSimilarityConsumer consumer
+    ) throws java.lang.InterruptedException {
+
+        AtomicInteger nextColumn = new AtomicInteger(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> tasks = new ArrayList<>();
+        for (int iThread = 0; iThread < threads; iThread++) {
+            tasks.add(executor.submit(new ProbeTask(nextColumn, consumer)));
+        }
+        executor.shutdown();
+
+        long count = 0;
+        try {
+            for (Future<Integer> task : tasks) {
+                count += task.get();
+            }
+        } catch (java.util.concurrent.ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+        return count;
+    }
+
+    private static final String COMMAND =
+            "Usage:\n" +
+            "  <eq-file>\n" +
+            "  <threshold>\n" +
+            "  <threads>\n" +
+            "  {<output-file>}";
+
+    private static final Logger LOGGER = Logger
+            .getLogger(ColumnSimilarityJoin.class.getName());
+
+    public static void main(String[] args) {
+
+        if ((args.length < 3) || (args.length > 4)) {
+            System.out.println(COMMAND);
+            System.exit(-1);
+        }
+
+        File eqFile = new File(args[0]);
+        double threshold = Double.parseDouble(args[1]);
+        int threads = Integer.parseInt(args[2]);
+        File outputFile = null;
+        if (args.length == 4) {
+            outputFile = new File(args[3]);
+        }
+
+        try {
+            PrintWriter out;
+            if (outputFile != null) {
+                out = FileSystem.openPrintWriter(outputFile);
+            } else {
+                out = new PrintWriter(System.out);
+            }
+            CompactEQIndex eqIndex = new CompactEQIndex(eqFile);
+            new ColumnSimilarityJoin(
+                    ColumnIndex.load(eqFile, eqIndex),
+                    eqIndex.nodeSizes(),
+                    threshold
+            ).run(threads, new SimilarityWriter(out));
+            out.close();
+        } catch (java.lang.InterruptedException | java.io.IOException ex) {
+            LOGGER.log(Level.SEVERE, "RUN", ex);
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Work-stealing scheduler for the computation of pairwise column
+ * similarities. The pair space (i, j) with i < j over all column positions in
+ * the column index is split recursively into rectangular tiles. The cost of a
+ * tile is estimated as the sum of the node list lengths that the
+ * intersection kernel reads for all pairs in the tile. Tiles are split in
+ * half along their longer side until their estimated cost is below the leaf
+ * cost. Tiles are executed in a ForkJoinPool, i.e., idle workers steal tiles
+ * that have not been started yet. A few very large columns therefore do not
+ * leave the remaining workers idle.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ColumnSimilarityScheduler {
+
+    /**
+     * Target number of leaf tiles per worker thread.
+     */
+    public static final int TILES_PER_THREAD = 64;
+
+    /**
+     * Compute similarity histogram for all pairs in the tile
+     * [rowStart, rowEnd) x [colStart, colEnd). Only pairs with row < column
+     * are considered.
+     */
+    private class TileTask extends RecursiveTask<JaccardHistogram> {
+
+        private final int _colEnd;
+        private final int _colStart;
+        private final int _rowEnd;
+        private final int _rowStart;
+
+        public TileTask(int rowStart, int rowEnd, int colStart, int colEnd) {
+
+            _rowStart = rowStart;
+            _rowEnd = rowEnd;
+            _colStart = colStart;
+            _colEnd = colEnd;
+        }
+
+        @Override
+        protected JaccardHistogram compute() {
+
+            final int rows = _rowEnd - _rowStart;
+            final int cols = _colEnd - _colStart;
+            if (((rows <= 1) && (cols <= 1)) || (cost(_rowStart, _rowEnd, _colStart, _colEnd) <= _leafCost)) {
+                return this.computeTile();
+            }
+
+            TileTask first;
+            TileTask second;
+            if (rows >= cols) {
+                int mid = _rowStart + rows / 2;
+                first = new TileTask(_rowStart, mid, _colStart, _colEnd);
+                second = new TileTask(mid, _rowEnd, _colStart, _colEnd);
+            } else {
+                int mid = _colStart + cols / 2;
+                first = new TileTask(_rowStart, _rowEnd, _colStart, mid);
+                second = new TileTask(_rowStart, _rowEnd, mid, _colEnd);
+            }
+            second.fork();
+            JaccardHistogram histogram = first.compute();
+            histogram.merge(second.join());
+            return histogram;
+        }
+
+        private JaccardHistogram computeTile() {
+
+            JaccardHistogram histogram = new JaccardHistogram();
+            for (int iCol = _rowStart; iCol < _rowEnd; iCol++) {
+                final int size1 = _columnSizes[iCol];
+                for (int jCol = Math.max(_colStart, iCol + 1); jCol < _colEnd; jCol++) {
+                    histogram.add(
+                            size1,
+                            _columnSizes[jCol],
+                            _columnIndex.overlap(iCol, jCol, _nodeSizes)
+                    );
+                }
+            }
+            return histogram;
+        }
+    }
+
+    private final ColumnIndex _columnIndex;
+    private final long[] _costPrefix;
+    private final int[] _columnSizes;
+    private long _leafCost = 1;
+    private final int[] _nodeSizes;
+
+    public ColumnSimilarityScheduler(ColumnIndex columnIndex, int[] nodeSizes) {
+
+        _columnIndex = columnIndex;
+        _nodeSizes = nodeSizes;
+        _columnSizes = columnIndex.weightedSizes(nodeSizes);
+
+        // Prefix sums over the node list lengths for tile cost estimates.
+        _costPrefix = new long[columnIndex.length() + 1];
+        for (int iCol = 0; iCol < columnIndex.length(); iCol++) {
+            _costPrefix[iCol + 1] = _costPrefix[iCol] + columnIndex.nodeCount(iCol) + 1;
+        }
+    }
+
+    /**
+     * Estimated cost for all pairs (i, j) with i < j in the given tile. The
+     * cost of a single pair is the sum of the lengths of both node lists.
+     *
+     * @param rowStart
+     * @param rowEnd
+     * @param colStart
+     * @param colEnd
+     * @return
+     */
+    private long cost(int rowStart, int rowEnd, int colStart, int colEnd) {
+
+        long cost = 0;
+        for (int iCol = rowStart; iCol < rowEnd; iCol++) {
+            final int start = Math.max(colStart, iCol + 1);
+            if (start < colEnd) {
+                final long rowCost = _costPrefix[iCol + 1] - _costPrefix[iCol];
+                cost += (colEnd - start) * rowCost;
+                cost += _costPrefix[colEnd] - _costPrefix[start];
+                if (cost > _leafCost) {
+                    break;
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Compute the similarity histogram for all column pairs using the given
+     * number of worker threads.
+     *
+     * @param threads
+     * @return
+     */
+    public synchronized JaccardHistogram run(int threads) {
+
+        final int columnCount = _columnIndex.length();
+
+        // Estimate the total cost to derive the cost of a leaf tile.
+        _leafCost = Long.MAX_VALUE;
+        long totalCost = this.cost(0, columnCount, 0, columnCount);
+        _leafCost = Math.max(1, totalCost / ((long)threads * TILES_PER_THREAD));
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new TileTask(0, columnCount, 0, columnCount));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
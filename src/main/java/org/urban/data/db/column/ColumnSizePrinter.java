@@ -20,74 +20,94 @@ import java.io.PrintWriter;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.urban.data.core.io.FileListReader;
 import org.urban.data.core.io.FileSystem;
 
 /**
  * Print number of distinct values and total values in a collection of database
  * column files.
  * 
+ * The output is a view over the column profiles (see ColumnProfiler). The
+ * input is either a list of column files or a profile file. Column files are
+ * profiled without determining data types.
+ * 
  * @author Heiko Mueller <heiko.mueller@nyu.edu>
  */
 public class ColumnSizePrinter {
     
+    /**
+     * Output number of total values and distinct values for the given column
+     * profiles.
+     * 
+     * @param profiles
+     * @param out 
+     */
+    public void print(List<ColumnProfile> profiles, PrintWriter out) {
+        
+        System.out.println(profiles.size() + " COLUMNS");
+        
+        for (ColumnProfile profile : profiles) {
+            String name = profile.file().getName();
+            name = name.substring(0, name.length() - 7);
+            int pos = name.indexOf(".");
+            String line = name.substring(0, pos) + "\t" + name.substring(pos + 1);
+            line += "\t" + profile.distinctCount() + "\t" + profile.totalCount();
+            out.println(line);
+            System.out.println(line);
+        }
+    }
+    
     /**
      * Output number of total values and distinct values per column.
      * 
      * @param files
+     * @param threads
      * @param out
      * @throws java.io.IOException 
      */
-    public void run(List<File> files, PrintWriter out) throws java.io.IOException {
+    public void run(List<File> files, int threads, PrintWriter out) throws java.io.IOException {
         
-        System.out.println(files.size() + " COLUMNS");
+        this.print(new ColumnProfiler(threads).run(files, 0), out);
+    }
+    
+    public void run(List<File> files, PrintWriter out) throws java.io.IOException {
         
-        for (File file : files) {
-            try (FlexibleColumnReader reader = new FlexibleColumnReader(file)) {
-                int cellCount = 0;
-                int valueCount = 0;
-                while (reader.hasNext()) {
-                    cellCount += reader.next().getCount();
-                    valueCount++;
-                }
-                String name = file.getName();
-                name = name.substring(0, name.length() - 7);
-                int pos = name.indexOf(".");
-                String line = name.substring(0, pos) + "\t" + name.substring(pos + 1);
-                line += "\t" + valueCount + "\t" + cellCount;
-                out.println(line);
-                System.out.println(line);
-            } catch (java.lang.NumberFormatException ex) {
-                LOGGER.log(Level.SEVERE, file.getName(), ex);
-                System.exit(-1);
-            }
-        }
+        this.run(files, 1, out);
     }
     
     private static final String COMMAND =
             "Usage:\n" +
-            "  <column-file-or-dir>\n" +
-            "  <output-file>";
+            "  <column-file-or-dir | profile-file>\n" +
+            "  <output-file>\n" +
+            "  {<threads>}\n" +
+            "  {<profile-cache-file>}";
     
     private static final Logger LOGGER = Logger
             .getLogger(ColumnSizePrinter.class.getName());
     
     public static void main(String[] args) {
         
-        if (args.length != 2) {
+        if ((args.length < 2) || (args.length > 4)) {
             System.out.println(COMMAND);
             System.exit(-1);
         }
         
         File inFile = new File(args[0]);
         File outputFile = new File(args[1]);
+        int threads = 1;
+        if (args.length >= 3) {
+            threads = Integer.parseInt(args[2]);
+        }
+        File cacheFile = null;
+        if (args.length == 4) {
+            cacheFile = new File(args[3]);
+        }
         
         try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
-            new ColumnSizePrinter().run(
-                    new FileListReader(".txt").listFiles(inFile),
+            new ColumnSizePrinter().print(
+                    ColumnProfiler.load(inFile, 0, threads, cacheFile),
                     out
             );
-        } catch (java.io.IOException ex) {
+        } catch (java.io.IOException | java.lang.NumberFormatException ex) {
             LOGGER.log(Level.SEVERE, "RUN", ex);
             System.exit(-1);
         }
@@ -17,91 +17,93 @@ package org.urban.data.db.column;
 
 import java.io.File;
 import java.io.PrintWriter;
-import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.urban.data.core.io.FileListReader;
 import org.urban.data.core.io.FileSystem;
-import org.urban.data.core.profiling.datatype.DefaultDataTypeAnnotator;
-import org.urban.data.core.profiling.datatype.label.DataType;
-import org.urban.data.core.util.count.Counter;
 
 /**
  * Print summary of data types for all values in a given list of columns.
  * 
+ * The summary is a view over the column profiles (see ColumnProfiler). The
+ * input is either a list of column files or a profile file.
+ * 
  * @author Heiko Mueller <heiko.mueller@nyu.edu>
  */
 public class ColumnTypePrinter {
     
-    private static final int[] DATATYPES = new int[]{
-        DataType.INTEGER,
-        DataType.LONG,
-        DataType.DECIMAL,
-        DataType.DATE,
-        DataType.GEO,
-        DataType.TEXT
-    };
+    /**
+     * Output the number of values for each data type in the given column
+     * profiles.
+     * 
+     * @param profiles
+     * @param out 
+     */
+    public void print(List<ColumnProfile> profiles, PrintWriter out) {
+        
+        for (ColumnProfile profile : profiles) {
+            String line = Integer.toString(profile.columnId());
+            for (int iType = 0; iType < ColumnProfile.DATATYPES.length; iType++) {
+                line += "\t" + profile.typeCount(iType);
+            }
+            out.println(line);
+            System.out.println(line);
+        }
+    }
     
     /**
-     * Output column files that have a fraction of text values that satisfies
-     * the given constraint.
+     * Output the number of values for each data type in the given list of
+     * column files. Types are determined for the first limitCount values in
+     * each column only. If limitCount is not positive types are determined
+     * for all values.
      * 
      * @param files
      * @param limitCount
+     * @param threads
      * @param out
      * @throws java.io.IOException 
      */
+    public void run(
+            List<File> files,
+            int limitCount,
+            int threads,
+            PrintWriter out
+    ) throws java.io.IOException {
+        
+        this.print(new ColumnProfiler(threads).run(files, typeLimit(limitCount)), out);
+    }
+    
     public void run(List<File> files, int limitCount, PrintWriter out) throws java.io.IOException {
         
-        DefaultDataTypeAnnotator typeCheck = new DefaultDataTypeAnnotator();
+        this.run(files, limitCount, 1, out);
+    }
+    
+    /**
+     * The profiler does not determine any types for a zero limit. For the
+     * type printer all non-positive limits refer to all values.
+     * 
+     * @param limitCount
+     * @return 
+     */
+    private static int typeLimit(int limitCount) {
         
-        for (File file : files) {
-            try (FlexibleColumnReader reader = new FlexibleColumnReader(file)) {
-                HashMap<Integer, Counter> types = new HashMap<>();
-                int valueCount = 0;
-                while (reader.hasNext()) {
-                    DataType type = typeCheck.getType(reader.next().getText());
-                    int key = type.id();
-                    if (!types.containsKey(key)) {
-                        types.put(key, new Counter(1));
-                    } else {
-                        types.get(key).inc();
-                    }
-                    valueCount++;
-                    if ((limitCount > 0) && (valueCount >= limitCount)) {
-                        break;
-                    }
-                }
-                String line = Integer.toString(reader.columnId());
-                for (int key : DATATYPES) {
-                    int count = 0;
-                    if (types.containsKey(key)) {
-                        count = types.get(key).value();
-                    }
-                    line += "\t" + count;
-                }
-                out.println(line);
-                System.out.println(line);
-            } catch (java.lang.NumberFormatException ex) {
-                LOGGER.log(Level.SEVERE, file.getName(), ex);
-                System.exit(-1);
-            }
-        }
+        return (limitCount > 0) ? limitCount : -1;
     }
     
     private static final String COMMAND =
             "Usage:\n" +
-            "  <column-file-or-dir>\n" +
+            "  <column-file-or-dir | profile-file>\n" +
             "  <limit-value-count-per-column> [-1 for all values]\n" +
-            "  <output-file>";
+            "  <output-file>\n" +
+            "  {<threads>}\n" +
+            "  {<profile-cache-file>}";
     
     private static final Logger LOGGER = Logger
             .getLogger(ColumnTypePrinter.class.getName());
     
     public static void main(String[] args) {
         
-        if (args.length != 3) {
+        if ((args.length < 3) || (args.length > 5)) {
             System.out.println(COMMAND);
             System.exit(-1);
         }
@@ -109,14 +111,21 @@ public class ColumnTypePrinter {
         File inFile = new File(args[0]);
         int limitCount = Integer.parseInt(args[1]);
         File outputFile = new File(args[2]);
+        int threads = 1;
+        if (args.length >= 4) {
+            threads = Integer.parseInt(args[3]);
+        }
+        File cacheFile = null;
+        if (args.length == 5) {
+            cacheFile = new File(args[4]);
+        }
         
         try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
-            new ColumnTypePrinter().run(
-                    new FileListReader(".txt").listFiles(inFile),
-                    limitCount,
+            new ColumnTypePrinter().print(
+                    ColumnProfiler.load(inFile, typeLimit(limitCount), threads, cacheFile),
                     out
             );
-        } catch (java.io.IOException ex) {
+        } catch (java.io.IOException | java.lang.NumberFormatException ex) {
             LOGGER.log(Level.SEVERE, "RUN", ex);
             System.exit(-1);
         }
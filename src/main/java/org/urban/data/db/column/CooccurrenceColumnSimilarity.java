@@ -0,0 +1,394 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.core.object.IdentifiableObjectImpl;
+import org.urban.data.core.similarity.ObjectSimilarityConsumer;
+import org.urban.data.core.similarity.SimilarityWriter;
+import org.urban.data.db.eq.EQ;
+import org.urban.data.db.eq.EQConsumer;
+import org.urban.data.db.eq.EQReader;
+import org.urban.data.db.eq.EQStream;
+
+/**
+ * Compute column similarities from the co-occurrence of columns in
+ * equivalence classes. Each equivalence class contributes its number of terms
+ * to the overlap of every pair of columns in its column list. Only column
+ * pairs that share at least one equivalence class are ever touched.
+ *
+ * Pair overlaps are accumulated in a set of primitive hash maps that are
+ * keyed by the column pair. The pair (c1, c2) with c1 < c2 is assigned to
+ * shard c1 mod (number of threads). Each shard is owned by a single worker
+ * thread. Equivalence classes are read by a single producer and passed to
+ * all workers in batches. If a worker fails the producer stops and the
+ * failure of the worker is rethrown.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class CooccurrenceColumnSimilarity {
+
+    public static final int BATCH_SIZE = 4096;
+
+    /**
+     * Time (in milliseconds) that the producer waits for space in a worker
+     * queue before it checks whether the worker is still alive.
+     */
+    private static final long OFFER_TIMEOUT = 100;
+
+    /**
+     * Batch of equivalence classes. Column lists are stored as CSR arrays.
+     * Batches are shared between all workers and are read-only after they
+     * have been handed to the workers.
+     */
+    private static class EQBatch {
+
+        private int[] _columns = new int[BATCH_SIZE];
+        private final int[] _offsets = new int[BATCH_SIZE + 1];
+        private int _size = 0;
+        private final int[] _weights = new int[BATCH_SIZE];
+
+        public void add(int[] columns, int weight) {
+
+            int start = _offsets[_size];
+            if (start + columns.length > _columns.length) {
+                _columns = Arrays.copyOf(
+                        _columns,
+                        Math.max(start + columns.length, _columns.length * 2)
+                );
+            }
+            System.arraycopy(columns, 0, _columns, start, columns.length);
+            _weights[_size] = weight;
+            _size++;
+            _offsets[_size] = start + columns.length;
+        }
+
+        public boolean isFull() {
+
+            return _size == BATCH_SIZE;
+        }
+    }
+
+    /**
+     * Accumulate pair overlaps for one shard.
+     */
+    private static class ShardTask implements Callable<LongIntHashMap> {
+
+        private final BlockingQueue<EQBatch> _queue;
+        private final int _shard;
+        private final int _shardCount;
+
+        public ShardTask(BlockingQueue<EQBatch> queue, int shard, int shardCount) {
+
+            _queue = queue;
+            _shard = shard;
+            _shardCount = shardCount;
+        }
+
+        @Override
+        public LongIntHashMap call() throws java.lang.InterruptedException {
+
+            LongIntHashMap overlaps = new LongIntHashMap();
+
+            EQBatch batch;
+            while ((batch = _queue.take()) != END_OF_STREAM) {
+                final int[] columns = batch._columns;
+                for (int iEQ = 0; iEQ < batch._size; iEQ++) {
+                    final int weight = batch._weights[iEQ];
+                    final int end = batch._offsets[iEQ + 1];
+                    for (int iCol = batch._offsets[iEQ]; iCol < end - 1; iCol++) {
+                        final int columnId = columns[iCol];
+                        if (columnId % _shardCount != _shard) {
+                            continue;
+                        }
+                        final long prefix = ((long)columnId) << 32;
+                        for (int jCol = iCol + 1; jCol < end; jCol++) {
+                            overlaps.add(prefix | columns[jCol], weight);
+                        }
+                    }
+                }
+            }
+            return overlaps;
+        }
+    }
+
+    private static final EQBatch END_OF_STREAM = new EQBatch();
+
+    private int[] _columnSizes = new int[0];
+    private int _columnCount = 0;
+    private LongIntHashMap[] _overlaps = null;
+
+    /**
+     * Accumulate pair overlaps for all equivalence classes in the given
+     * stream.
+     *
+     * @param stream
+     * @param threads
+     * @throws java.lang.InterruptedException
+     */
+    public CooccurrenceColumnSimilarity(
+            EQStream stream,
+            int threads
+    ) throws java.lang.InterruptedException {
+
+        List<BlockingQueue<EQBatch>> queues = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<LongIntHashMap>> tasks = new ArrayList<>();
+        for (int iThread = 0; iThread < threads; iThread++) {
+            BlockingQueue<EQBatch> queue = new ArrayBlockingQueue<>(4);
+            queues.add(queue);
+            tasks.add(executor.submit(new ShardTask(queue, iThread, threads)));
+        }
+        executor.shutdown();
+
+        try {
+            stream.stream(new EQConsumer() {
+                private EQBatch _batch = new EQBatch();
+                @Override
+                public void close() {
+                    if (_batch._size > 0) {
+                        send(queues, tasks, _batch);
+                    }
+                    send(queues, tasks, END_OF_STREAM);
+                }
+                @Override
+                public void consume(EQ node) {
+                    int[] columns = node.columns().toArray();
+                    Arrays.sort(columns);
+                    int weight = node.terms().length();
+                    addColumnSizes(columns, weight);
+                    _batch.add(columns, weight);
+                    if (_batch.isFull()) {
+                        send(queues, tasks, _batch);
+                        _batch = new EQBatch();
+                    }
+                }
+                @Override
+                public void open() {
+                }
+            });
+            _overlaps = new LongIntHashMap[threads];
+            for (int iThread = 0; iThread < threads; iThread++) {
+                _overlaps[iThread] = tasks.get(iThread).get();
+            }
+        } catch (java.util.concurrent.ExecutionException ex) {
+            throw workerFailure(ex.getCause());
+        } finally {
+            // Stop workers that are still waiting for input after a failure.
+            executor.shutdownNow();
+        }
+    }
+
+    private void addColumnSizes(int[] columns, int weight) {
+
+        for (int columnId : columns) {
+            if (columnId >= _columnSizes.length) {
+                _columnSizes = Arrays.copyOf(
+                        _columnSizes,
+                        Math.max(columnId + 1, _columnSizes.length * 2)
+                );
+            }
+            if (_columnSizes[columnId] == 0) {
+                _columnCount++;
+            }
+            _columnSizes[columnId] += weight;
+        }
+    }
+
+    /**
+     * Weighted column sizes indexed by column identifier.
+     *
+     * @return
+     */
+    public int[] columnSizes() {
+
+        return _columnSizes;
+    }
+
+    /**
+     * Histogram of similarities for all pairs of columns. Pairs without any
+     * overlap are added to the first bucket.
+     *
+     * @return
+     */
+    public JaccardHistogram histogram() {
+
+        JaccardHistogram histogram = new JaccardHistogram();
+        final int[] columnSizes = _columnSizes;
+        long nonZeroPairs = 0;
+        for (LongIntHashMap shard : _overlaps) {
+            shard.entries(new LongIntHashMap.EntryConsumer() {
+                @Override
+                public void consume(long key, int value) {
+                    histogram.add(
+                            columnSizes[(int)(key >>> 32)],
+                            columnSizes[(int)key],
+                            value
+                    );
+                }
+            });
+            nonZeroPairs += shard.size();
+        }
+        long allPairs = ((long)_columnCount * (long)(_columnCount - 1)) / 2L;
+        histogram.add(0, allPairs - nonZeroPairs);
+        return histogram;
+    }
+
+    /**
+     * Number of column pairs that share at least one equivalence class.
+     *
+     * @return
+     */
+    public long pairCount() {
+
+        long count = 0;
+        for (LongIntHashMap shard : _overlaps) {
+            count += shard.size();
+        }
+        return count;
+    }
+
+    /**
+     * Pass all column pairs with a similarity of at least the given threshold
+     * to the consumer. Returns the number of pairs that were passed to the
+     * consumer.
+     *
+     * @param threshold
+     * @param consumer
+     * @return
+     */
+    public long run(double threshold, ObjectSimilarityConsumer consumer) {
+
+        final int[] columnSizes = _columnSizes;
+        final long[] count = new long[]{0};
+        for (LongIntHashMap shard : _overlaps) {
+            shard.entries(new LongIntHashMap.EntryConsumer() {
+                @Override
+                public void consume(long key, int value) {
+                    int columnId1 = (int)(key >>> 32);
+                    int columnId2 = (int)key;
+                    int union = columnSizes[columnId1] + columnSizes[columnId2] - value;
+                    double sim = (double)value / (double)union;
+                    if (sim >= threshold) {
+                        consumer.consume(
+                                new IdentifiableObjectImpl(columnId1),
+                                new IdentifiableObjectImpl(columnId2),
+                                new BigDecimal(sim)
+                        );
+                        count[0]++;
+                    }
+                }
+            });
+        }
+        return count[0];
+    }
+
+    /**
+     * Pass a batch to all workers. Waits for space in the queue of each
+     * worker. Fails with the exception of a worker if the worker has
+     * terminated before the end of the stream.
+     */
+    private static void send(
+            List<BlockingQueue<EQBatch>> queues,
+            List<Future<LongIntHashMap>> tasks,
+            EQBatch batch
+    ) {
+
+        try {
+            for (int iQueue = 0; iQueue < queues.size(); iQueue++) {
+                BlockingQueue<EQBatch> queue = queues.get(iQueue);
+                Future<LongIntHashMap> task = tasks.get(iQueue);
+                while (!queue.offer(batch, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    if (task.isDone()) {
+                        task.get();
+                        throw new IllegalStateException("Worker " + iQueue + " terminated early");
+                    }
+                }
+            }
+        } catch (java.lang.InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (java.util.concurrent.ExecutionException ex) {
+            throw workerFailure(ex.getCause());
+        }
+    }
+
+    /**
+     * Get the exception that is rethrown for a failed worker. Errors (e.g.,
+     * out of memory) are rethrown directly.
+     */
+    private static RuntimeException workerFailure(Throwable cause) {
+
+        if (cause instanceof Error) {
+            throw (Error)cause;
+        } else if (cause instanceof RuntimeException) {
+            return (RuntimeException)cause;
+        }
+        return new RuntimeException(cause);
+    }
+
+    private static final String COMMAND =
+            "Usage:\n" +
+            "  <eq-file>\n" +
+            "  <threads>\n" +
+            "  <output-file>\n" +
+            "  {<threshold>}";
+
+    private static final Logger LOGGER = Logger
+            .getLogger(CooccurrenceColumnSimilarity.class.getName());
+
+    public static void main(String[] args) {
+
+        if ((args.length < 3) || (args.length > 4)) {
+            System.out.println(COMMAND);
+            System.exit(-1);
+        }
+
+        File eqFile = new File(args[0]);
+        int threads = Integer.parseInt(args[1]);
+        File outputFile = new File(args[2]);
+
+        try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
+            CooccurrenceColumnSimilarity engine;
+            engine = new CooccurrenceColumnSimilarity(new EQReader(eqFile), threads);
+            if (args.length == 4) {
+                // Output all column pairs above the threshold
+                double threshold = Double.parseDouble(args[3]);
+                engine.run(threshold, new SimilarityWriter(out));
+            } else {
+                // Output histogram of similarities for all column pairs
+                engine.histogram().write(out);
+            }
+        } catch (java.lang.InterruptedException | java.io.IOException ex) {
+            LOGGER.log(Level.SEVERE, "RUN", ex);
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.urban.data.core.profiling.datatype.DefaultDataTypeAnnotator;
+import org.urban.data.core.profiling.datatype.label.DataType;
+
+/**
+ * Bounded cache for the data type of values. Types are determined by the
+ * default data type annotator. Values that repeat across columns (e.g., dates
+ * or codes) are only classified once.
+ *
+ * The cache is thread-safe. Entries are distributed over a fixed number of
+ * segments based on the value hash. Each segment is synchronized separately
+ * and evicts its least recently used entry when it is full. Each thread uses
+ * its own annotator.
+ *
+ * The number of cache hits and misses are counted to allow sizing the cache.
+ * Components that are not given a cache explicitly use the default cache.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class DataTypeCache {
+
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    private static final int SEGMENTS = 16;
+
+    private static DataTypeCache _default = new DataTypeCache(DEFAULT_CACHE_SIZE);
+
+    private final ThreadLocal<DefaultDataTypeAnnotator> _annotator = new ThreadLocal<DefaultDataTypeAnnotator>() {
+        @Override
+        protected DefaultDataTypeAnnotator initialValue() {
+            return new DefaultDataTypeAnnotator();
+        }
+    };
+    private final AtomicLong _hitCount = new AtomicLong(0);
+    private final AtomicLong _missCount = new AtomicLong(0);
+    private final Map<String, DataType>[] _segments;
+
+    /**
+     * Initialize the maximum number of values in the cache. The size is split
+     * evenly among the segments (rounded up). If the size is not positive
+     * values are not cached.
+     *
+     * @param size
+     */
+    @SuppressWarnings("unchecked")
+    public DataTypeCache(int size) {
+
+        _segments = new Map[SEGMENTS];
+        final int segmentSize = (size + SEGMENTS - 1) / SEGMENTS;
+        for (int iSegment = 0; iSegment < SEGMENTS; iSegment++) {
+            _segments[iSegment] = new LinkedHashMap<String, DataType>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DataType> eldest) {
+                    return (this.size() > segmentSize);
+                }
+            };
+        }
+    }
+
+    /**
+     * Remove all entries and reset the hit and miss counts.
+     */
+    public void clear() {
+
+        for (Map<String, DataType> segment : _segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        _hitCount.set(0);
+        _missCount.set(0);
+    }
+
+    /**
+     * Get the default cache.
+     *
+     * @return
+     */
+    public static synchronized DataTypeCache getDefault() {
+
+        return _default;
+    }
+
+    /**
+     * Get the data type for the given value.
+     *
+     * @param value
+     * @return
+     */
+    public DataType getType(String value) {
+
+        Map<String, DataType> segment = _segments[(value.hashCode() & 0x7FFFFFFF) % SEGMENTS];
+        synchronized (segment) {
+            DataType type = segment.get(value);
+            if (type != null) {
+                _hitCount.incrementAndGet();
+                return type;
+            }
+        }
+        // Classify the value outside of the lock. Concurrent misses for the
+        // same value may classify it more than once.
+        _missCount.incrementAndGet();
+        DataType type = _annotator.get().getType(value);
+        synchronized (segment) {
+            segment.put(value, type);
+        }
+        return type;
+    }
+
+    /**
+     * Number of lookups that were answered from the cache.
+     *
+     * @return
+     */
+    public long hitCount() {
+
+        return _hitCount.get();
+    }
+
+    /**
+     * Fraction of lookups that were answered from the cache.
+     *
+     * @return
+     */
+    public double hitRate() {
+
+        long hits = _hitCount.get();
+        long total = hits + _missCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        return (double)hits / (double)total;
+    }
+
+    /**
+     * Number of lookups that required classification of the value.
+     *
+     * @return
+     */
+    public long missCount() {
+
+        return _missCount.get();
+    }
+
+    /**
+     * Set the default cache.
+     *
+     * @param cache
+     */
+    public static synchronized void setDefault(DataTypeCache cache) {
+
+        _default = cache;
+    }
+
+    /**
+     * Number of values in the cache.
+     *
+     * @return
+     */
+    public int size() {
+
+        int size = 0;
+        for (Map<String, DataType> segment : _segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+}
@@ -18,12 +18,8 @@ package org.urban.data.db.column;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
-import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import org.apache.commons.codec.binary.Hex;
 import org.urban.data.core.value.IdentifiableValueCounterImpl;
 import org.urban.data.core.value.ValueCounter;
 import org.urban.data.core.value.ValueCounterImpl;
@@ -39,28 +35,30 @@ public class FlexibleColumnReader extends ColumnReader<ValueCounter> {
    
     public static final String DEFAULT_DELIMITER = "\t";
     
-    private static final Logger LOGGER = Logger
-            .getLogger(FlexibleColumnReader.class.getName());
-    
     private final String _delimiter;
     private final File _file;
+    private final ValueHasher _hasher;
     private BufferedReader _in;
     private ValueCounter _value = null;
     private final int _hashLengthThreshold;
     
     /**
-     * Initialize the input file and column delimiter for the reader.
+     * Initialize the input file and column delimiter for the reader. Values
+     * that exceed the hash length threshold are replaced by their hash using
+     * the given hasher.
      * 
      * @param file
      * @param columnId
      * @param delimiter
      * @param hashLengthThreshold
+     * @param hasher
      */
     public FlexibleColumnReader(
             File file,
             int columnId,
             String delimiter,
-            int hashLengthThreshold
+            int hashLengthThreshold,
+            ValueHasher hasher
     ) {
         
         super(columnId);
@@ -68,10 +66,30 @@ public class FlexibleColumnReader extends ColumnReader<ValueCounter> {
         _file = file;
         _delimiter = delimiter;
         _hashLengthThreshold = hashLengthThreshold;
+        _hasher = hasher;
         
         this.reset();
     }
     
+    /**
+     * Initialize the input file and column delimiter for the reader. Uses the
+     * default value hasher.
+     * 
+     * @param file
+     * @param columnId
+     * @param delimiter
+     * @param hashLengthThreshold
+     */
+    public FlexibleColumnReader(
+            File file,
+            int columnId,
+            String delimiter,
+            int hashLengthThreshold
+    ) {
+        
+        this(file, columnId, delimiter, hashLengthThreshold, ValueHasher.getDefault());
+    }
+    
     /**
      * Initialize reader with default column delimiter.
      * 
@@ -101,7 +119,8 @@ public class FlexibleColumnReader extends ColumnReader<ValueCounter> {
                 _file,
                 this.columnId(),
                 _delimiter,
-                _hashLengthThreshold
+                _hashLengthThreshold,
+                _hasher
         );
     }
 
@@ -122,16 +141,7 @@ public class FlexibleColumnReader extends ColumnReader<ValueCounter> {
         if ((_hashLengthThreshold == -1) || (value.length() < _hashLengthThreshold)) {
             return value;
         } else {
-            MessageDigest digest;
-            try {
-                digest = MessageDigest.getInstance("SHA-256");
-                String hash = Hex.encodeHexString(digest.digest(value.getBytes("UTF-8")));
-                System.out.println(hash + "\t" + value);
-                return hash;
-            } catch (java.security.NoSuchAlgorithmException | java.io.UnsupportedEncodingException ex) {
-               LOGGER.log(Level.SEVERE, null, ex);
-               throw new RuntimeException(ex);
-            }
+            return _hasher.hash(value);
         }
     }
     
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.PrintWriter;
+
+/**
+ * Histogram of Jaccard similarities with buckets of width 0.01. Similarities
+ * are added as integer set sizes and overlap and binned without creating
+ * any objects.
+ *
+ * The bucket assignment follows SimilarityHistogram: the similarity is
+ * rounded up to eight decimal digits and then truncated to two digits. The
+ * bucket is computed exactly using integer arithmetic. The output of write()
+ * has the same format as SimilarityHistogram.write().
+ *
+ * The histogram is not thread-safe. Use one histogram per thread and merge
+ * them at the end.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class JaccardHistogram {
+
+    public static final int BUCKETS = 100;
+
+    private final long[] _counts;
+
+    public JaccardHistogram() {
+
+        _counts = new long[BUCKETS + 1];
+    }
+
+    /**
+     * Add similarity of two sets with the given sizes and overlap.
+     *
+     * @param size1
+     * @param size2
+     * @param overlap
+     */
+    public void add(int size1, int size2, int overlap) {
+
+        _counts[bucket(size1, size2, overlap)]++;
+    }
+
+    /**
+     * Add count for the given bucket.
+     *
+     * @param bucket
+     * @param count
+     */
+    public void add(int bucket, long count) {
+
+        _counts[bucket] += count;
+    }
+
+    /**
+     * Histogram bucket for the Jaccard similarity of two sets with the given
+     * sizes and overlap. The result is in [0, 100].
+     *
+     * @param size1
+     * @param size2
+     * @param overlap
+     * @return
+     */
+    public static int bucket(int size1, int size2, int overlap) {
+
+        return bucket((long)overlap, (long)size1 + (long)size2 - (long)overlap);
+    }
+
+    /**
+     * Histogram bucket for the similarity overlap / union. The result is in
+     * [0, 100].
+     *
+     * The bucket is the largest k such that ceil(ji * 10^8) / 10^8 >= k / 100,
+     * i.e., overlap * 10^8 > union * (10^6 * k - 1).
+     *
+     * @param overlap
+     * @param union
+     * @return
+     */
+    public static int bucket(long overlap, long union) {
+
+        if (overlap <= 0) {
+            return 0;
+        }
+        return (int)((overlap * 100000000L + union - 1L) / (union * 1000000L));
+    }
+
+    public long count(int bucket) {
+
+        return _counts[bucket];
+    }
+
+    /**
+     * Add counts of the given histogram to this histogram.
+     *
+     * @param histogram
+     */
+    public void merge(JaccardHistogram histogram) {
+
+        for (int iBucket = 0; iBucket < _counts.length; iBucket++) {
+            _counts[iBucket] += histogram._counts[iBucket];
+        }
+    }
+
+    public long totalSize() {
+
+        long size = 0;
+        for (long count : _counts) {
+            size += count;
+        }
+        return size;
+    }
+
+    public void write(PrintWriter out) {
+
+        for (int iBucket = 0; iBucket < BUCKETS; iBucket++) {
+            out.println(String.format("0.%02d", iBucket) + "\t" + _counts[iBucket]);
+        }
+        out.println("1.00\t" + _counts[BUCKETS]);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from non-negative long keys to int values using open addressing
+ * with linear probing. Keys and values are stored in primitive arrays. The
+ * map is not thread-safe.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class LongIntHashMap {
+
+    /**
+     * Consumer for the entries in the map.
+     */
+    public interface EntryConsumer {
+
+        public void consume(long key, int value);
+    }
+
+    private static final long EMPTY = -1L;
+    private static final double LOAD_FACTOR = 0.6;
+
+    private long[] _keys;
+    private int _mask;
+    private int _size = 0;
+    private int _threshold;
+    private int[] _values;
+
+    public LongIntHashMap(int expectedSize) {
+
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        this.allocate(capacity);
+    }
+
+    public LongIntHashMap() {
+
+        this(16);
+    }
+
+    /**
+     * Add the given value to the value that is associated with the key. If
+     * the key is not in the map, it is added with the given value.
+     *
+     * @param key
+     * @param value
+     */
+    public void add(long key, int value) {
+
+        if (key < 0) {
+            throw new IllegalArgumentException("Invalid key " + key);
+        }
+        int pos = this.position(key);
+        if (_keys[pos] == EMPTY) {
+            _keys[pos] = key;
+            _values[pos] = value;
+            _size++;
+            if (_size > _threshold) {
+                this.rehash();
+            }
+        } else {
+            _values[pos] += value;
+        }
+    }
+
+    private void allocate(int capacity) {
+
+        _keys = new long[capacity];
+        Arrays.fill(_keys, EMPTY);
+        _values = new int[capacity];
+        _mask = capacity - 1;
+        _threshold = (int)(capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Pass all entries in the map to the given consumer. Entries are passed
+     * in no particular order.
+     *
+     * @param consumer
+     */
+    public void entries(EntryConsumer consumer) {
+
+        for (int pos = 0; pos < _keys.length; pos++) {
+            if (_keys[pos] != EMPTY) {
+                consumer.consume(_keys[pos], _values[pos]);
+            }
+        }
+    }
+
+    /**
+     * Get the value for the given key. Returns zero if the key is not in the
+     * map.
+     *
+     * @param key
+     * @return
+     */
+    public int get(long key) {
+
+        int pos = this.position(key);
+        if (_keys[pos] == EMPTY) {
+            return 0;
+        }
+        return _values[pos];
+    }
+
+    private static int hash(long key) {
+
+        // Finalizer of the 64-bit MurmurHash3
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key;
+    }
+
+    private int position(long key) {
+
+        int pos = hash(key) & _mask;
+        while ((_keys[pos] != EMPTY) && (_keys[pos] != key)) {
+            pos = (pos + 1) & _mask;
+        }
+        return pos;
+    }
+
+    private void rehash() {
+
+        long[] keys = _keys;
+        int[] values = _values;
+        this.allocate(keys.length * 2);
+        for (int iPos = 0; iPos < keys.length; iPos++) {
+            if (keys[iPos] != EMPTY) {
+                int pos = this.position(keys[iPos]);
+                _keys[pos] = keys[iPos];
+                _values[pos] = values[iPos];
+            }
+        }
+    }
+
+    public int size() {
+
+        return _size;
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fixed-size MinHash signatures for all columns in a column index. The
+ * signatures approximate the Jaccard similarity of columns where each node
+ * is weighted by its number of terms.
+ *
+ * For each hash function every node is assigned an exponentially distributed
+ * value with rate equal to the node weight. The signature entry is the node
+ * with the minimal value. The probability that two columns have the same
+ * entry equals the weighted Jaccard similarity of the columns. This is
+ * equivalent to MinHash over the terms of the columns without expanding
+ * nodes into terms.
+ *
+ * Candidate pairs are generated using LSH banding. Signatures can be written
+ * to a file next to the equivalence class file and reused.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class MinHashSignatures {
+
+    public static final int DEFAULT_SIGNATURE_SIZE = 128;
+    public static final long DEFAULT_SEED = 42L;
+
+    /**
+     * Suffix that is appended to the name of the equivalence class file to
+     * get the name of the persisted signature file.
+     */
+    public static final String FILE_SUFFIX = ".minhash.bin";
+
+    public static final byte[] MAGIC = new byte[]{'U', 'D', 'M', 'H'};
+    public static final int VERSION = 1;
+
+    /**
+     * Compute signatures for columns that are assigned to the task one at a
+     * time.
+     */
+    private class SignatureTask implements Callable<Void> {
+
+        private final ColumnIndex _columnIndex;
+        private final long[] _hashSeeds;
+        private final AtomicInteger _nextColumn;
+        private final int[] _nodeSizes;
+
+        public SignatureTask(
+                ColumnIndex columnIndex,
+                int[] nodeSizes,
+                long[] hashSeeds,
+                AtomicInteger nextColumn
+        ) {
+
+            _columnIndex = columnIndex;
+            _nodeSizes = nodeSizes;
+            _hashSeeds = hashSeeds;
+            _nextColumn = nextColumn;
+        }
+
+        @Override
+        public Void call() {
+
+            double[] minValues = new double[_signatureSize];
+
+            int iCol;
+            while ((iCol = _nextColumn.getAndIncrement()) < _columnIds.length) {
+                final int offset = iCol * _signatureSize;
+                Arrays.fill(minValues, Double.POSITIVE_INFINITY);
+                Arrays.fill(_signatures, offset, offset + _signatureSize, -1);
+                for (int node : _columnIndex.nodes(iCol)) {
+                    final int weight = _nodeSizes[node];
+                    if (weight <= 0) {
+                        continue;
+                    }
+                    for (int iHash = 0; iHash < _signatureSize; iHash++) {
+                        double value = exponential(node, _hashSeeds[iHash]) / weight;
+                        if (value < minValues[iHash]) {
+                            minValues[iHash] = value;
+                            _signatures[offset + iHash] = node;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final Logger LOGGER = Logger
+            .getLogger(MinHashSignatures.class.getName());
+
+    private final int[] _columnIds;
+    private final long _seed;
+    private final int _signatureSize;
+    private final int[] _signatures;
+
+    private MinHashSignatures(
+            int[] columnIds,
+            int signatureSize,
+            long seed,
+            int[] signatures
+    ) {
+
+        _columnIds = columnIds;
+        _signatureSize = signatureSize;
+        _seed = seed;
+        _signatures = signatures;
+    }
+
+    public MinHashSignatures(
+            ColumnIndex columnIndex,
+            int[] nodeSizes,
+            int signatureSize,
+            long seed,
+            int threads
+    ) throws java.lang.InterruptedException {
+
+        if (signatureSize < 1) {
+            throw new IllegalArgumentException("Invalid signature size " + signatureSize);
+        }
+
+        _signatureSize = signatureSize;
+        _seed = seed;
+        _columnIds = new int[columnIndex.length()];
+        for (int iCol = 0; iCol < _columnIds.length; iCol++) {
+            _columnIds[iCol] = columnIndex.columnId(iCol);
+        }
+        _signatures = new int[_columnIds.length * signatureSize];
+
+        Random random = new Random(seed);
+        long[] hashSeeds = new long[signatureSize];
+        for (int iHash = 0; iHash < signatureSize; iHash++) {
+            hashSeeds[iHash] = random.nextLong();
+        }
+
+        AtomicInteger nextColumn = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> tasks = new ArrayList<>();
+        for (int iThread = 0; iThread < threads; iThread++) {
+            tasks.add(
+                    executor.submit(
+                            new SignatureTask(
+                                    columnIndex,
+                                    nodeSizes,
+                                    hashSeeds,
+                                    nextColumn
+                            )
+                    )
+            );
+        }
+        executor.shutdown();
+
+        try {
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+        } catch (java.util.concurrent.ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Get all pairs of columns that are in the same bucket for at least one
+     * band. The signature is split into the given number of bands. The
+     * result maps the pair key (index1 << 32 | index2 with index1 < index2)
+     * to the number of matching signature entries.
+     *
+     * @param bands
+     * @return
+     */
+    public LongIntHashMap candidates(int bands) {
+
+        if ((bands < 1) || (_signatureSize % bands != 0)) {
+            throw new IllegalArgumentException(
+                    "Signature size " + _signatureSize +
+                    " is not a multiple of " + bands + " bands"
+            );
+        }
+        final int rows = _signatureSize / bands;
+
+        LongIntHashMap candidates = new LongIntHashMap();
+        long[] keys = new long[_columnIds.length];
+        for (int iBand = 0; iBand < bands; iBand++) {
+            final int bandOffset = iBand * rows;
+            int keyCount = 0;
+            for (int iCol = 0; iCol < _columnIds.length; iCol++) {
+                final int offset = iCol * _signatureSize + bandOffset;
+                long hash = iBand;
+                boolean empty = false;
+                for (int iRow = 0; iRow < rows; iRow++) {
+                    final int node = _signatures[offset + iRow];
+                    if (node < 0) {
+                        empty = true;
+                        break;
+                    }
+                    hash = mix(hash * 31L + node);
+                }
+                if (!empty) {
+                    keys[keyCount++] = (hash & 0xFFFFFFFF00000000L) | iCol;
+                }
+            }
+            Arrays.sort(keys, 0, keyCount);
+            int start = 0;
+            while (start < keyCount) {
+                final long bucket = keys[start] & 0xFFFFFFFF00000000L;
+                int end = start + 1;
+                while ((end < keyCount) && ((keys[end] & 0xFFFFFFFF00000000L) == bucket)) {
+                    end++;
+                }
+                for (int i = start; i < end - 1; i++) {
+                    final int index1 = (int)keys[i];
+                    for (int j = i + 1; j < end; j++) {
+                        final int index2 = (int)keys[j];
+                        final long key = ((long)index1 << 32) | index2;
+                        if (candidates.get(key) == 0) {
+                            candidates.add(key, this.matches(index1, index2));
+                        }
+                    }
+                }
+                start = end;
+            }
+        }
+        return candidates;
+    }
+
+    public int columnId(int index) {
+
+        return _columnIds[index];
+    }
+
+    /**
+     * Exponentially distributed value (rate 1) for the given node and hash
+     * function.
+     *
+     * @param node
+     * @param hashSeed
+     * @return
+     */
+    private static double exponential(int node, long hashSeed) {
+
+        long hash = mix(hashSeed ^ (node * 0x9E3779B97F4A7C15L));
+        // Uniform value in (0, 1)
+        double u = ((hash >>> 11) + 0.5) * 0x1.0p-53;
+        return -Math.log(u);
+    }
+
+    /**
+     * Get the file that contains the persisted signatures for the given
+     * equivalence class file.
+     *
+     * @param eqFile
+     * @return
+     */
+    public static File getFile(File eqFile) {
+
+        return new File(eqFile.getPath() + FILE_SUFFIX);
+    }
+
+    public int length() {
+
+        return _columnIds.length;
+    }
+
+    /**
+     * Load signatures for the given equivalence class file. Uses the
+     * persisted signatures if they are up to date and have been computed
+     * with the same signature size and seed. Otherwise, the signatures are
+     * computed and written to the signature file.
+     *
+     * @param eqFile
+     * @param columnIndex
+     * @param nodeSizes
+     * @param signatureSize
+     * @param seed
+     * @param threads
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public static MinHashSignatures load(
+            File eqFile,
+            ColumnIndex columnIndex,
+            int[] nodeSizes,
+            int signatureSize,
+            long seed,
+            int threads
+    ) throws java.lang.InterruptedException {
+
+        File file = getFile(eqFile);
+        if (file.exists()) {
+            try {
+                MinHashSignatures signatures = read(file, eqFile);
+                if ((signatures != null) && (signatures._signatureSize == signatureSize) && (signatures._seed == seed)) {
+                    return signatures;
+                }
+            } catch (java.io.IOException ex) {
+                LOGGER.log(Level.WARNING, "Ignore invalid signature file " + file.getName(), ex);
+            }
+        }
+
+        MinHashSignatures signatures = new MinHashSignatures(
+                columnIndex,
+                nodeSizes,
+                signatureSize,
+                seed,
+                threads
+        );
+        try {
+            signatures.write(file, eqFile);
+        } catch (java.io.IOException ex) {
+            LOGGER.log(Level.WARNING, "Could not write signature file " + file.getName(), ex);
+        }
+        return signatures;
+    }
+
+    /**
+     * Number of matching entries in the signatures of the columns at the
+     * given positions.
+     *
+     * @param index1
+     * @param index2
+     * @return
+     */
+    public int matches(int index1, int index2) {
+
+        final int offset1 = index1 * _signatureSize;
+        final int offset2 = index2 * _signatureSize;
+        int matches = 0;
+        for (int iHash = 0; iHash < _signatureSize; iHash++) {
+            final int node = _signatures[offset1 + iHash];
+            if ((node >= 0) && (node == _signatures[offset2 + iHash])) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private static long mix(long key) {
+
+        // Finalizer of the 64-bit MurmurHash3
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Read persisted signatures. Returns null if the equivalence class file
+     * has been modified after the signatures were written.
+     *
+     * @param file
+     * @param eqFile
+     * @return
+     * @throws java.io.IOException
+     */
+    public static MinHashSignatures read(File file, File eqFile) throws java.io.IOException {
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))
+        )) {
+            byte[] header = new byte[MAGIC.length];
+            in.readFully(header);
+            if (!Arrays.equals(header, MAGIC)) {
+                throw new java.io.IOException("Not a MinHash signature file");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new java.io.IOException("Unsupported signature file version " + version);
+            }
+            long eqFileLength = in.readLong();
+            long eqFileModified = in.readLong();
+            if ((eqFileLength != eqFile.length()) || (eqFileModified != eqFile.lastModified())) {
+                return null;
+            }
+            long seed = in.readLong();
+            int signatureSize = in.readInt();
+            int columnCount = in.readInt();
+            int[] columnIds = new int[columnCount];
+            for (int iCol = 0; iCol < columnCount; iCol++) {
+                columnIds[iCol] = in.readInt();
+            }
+            int[] signatures = new int[columnCount * signatureSize];
+            for (int iValue = 0; iValue < signatures.length; iValue++) {
+                signatures[iValue] = in.readInt();
+            }
+            return new MinHashSignatures(columnIds, signatureSize, seed, signatures);
+        }
+    }
+
+    public int signatureSize() {
+
+        return _signatureSize;
+    }
+
+    /**
+     * Persist the signatures for the given equivalence class file.
+     *
+     * @param file
+     * @param eqFile
+     * @throws java.io.IOException
+     */
+    public void write(File file, File eqFile) throws java.io.IOException {
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file))
+        )) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(eqFile.length());
+            out.writeLong(eqFile.lastModified());
+            out.writeLong(_seed);
+            out.writeInt(_signatureSize);
+            out.writeInt(_columnIds.length);
+            for (int columnId : _columnIds) {
+                out.writeInt(columnId);
+            }
+            for (int value : _signatures) {
+                out.writeInt(value);
+            }
+        }
+    }
+}
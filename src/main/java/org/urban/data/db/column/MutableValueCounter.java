@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.nio.charset.StandardCharsets;
+import org.urban.data.core.value.IdentifiableValueCounter;
+import org.urban.data.core.value.ValueCounter;
+
+/**
+ * Reusable value counter. The value is a UTF-8 encoded byte range in a
+ * buffer that is owned by the reader. The text of the value is only decoded
+ * when it is requested. The holder is overwritten by the reader when the next
+ * value is read, i.e., callers that keep values have to copy them.
+ *
+ * The counter is identifiable like the counters that are returned by other
+ * column readers for files with value identifier. For files without value
+ * identifier the identifier is -1.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class MutableValueCounter implements IdentifiableValueCounter {
+
+    private byte[] _buffer = null;
+    private int _count = 0;
+    private int _id = -1;
+    private int _length = 0;
+    private int _offset = 0;
+    private String _text = null;
+
+    /**
+     * Buffer that contains the encoded value.
+     *
+     * @return
+     */
+    public byte[] buffer() {
+
+        return _buffer;
+    }
+
+    @Override
+    public int compareTo(ValueCounter value) {
+
+        return this.getText().compareTo(value.getText());
+    }
+
+    @Override
+    public int getCount() {
+
+        return _count;
+    }
+
+    @Override
+    public String getText() {
+
+        if (_text == null) {
+            _text = new String(_buffer, _offset, _length, StandardCharsets.UTF_8);
+        }
+        return _text;
+    }
+
+    /**
+     * Value identifier for column files that contain value identifier.
+     * Returns -1 if the column file does not have identifier.
+     *
+     * @return
+     */
+    @Override
+    public int id() {
+
+        return _id;
+    }
+
+    @Override
+    public int incCount() {
+
+        return ++_count;
+    }
+
+    @Override
+    public int incCount(int value) {
+
+        _count += value;
+        return _count;
+    }
+
+    public boolean isEmpty() {
+
+        return (_length == 0);
+    }
+
+    /**
+     * Length of the encoded value in bytes.
+     *
+     * @return
+     */
+    public int length() {
+
+        return _length;
+    }
+
+    /**
+     * Start position of the encoded value in the buffer.
+     *
+     * @return
+     */
+    public int offset() {
+
+        return _offset;
+    }
+
+    /**
+     * Set the value to the given byte range.
+     *
+     * @param id
+     * @param buffer
+     * @param offset
+     * @param length
+     * @param count
+     */
+    public void set(int id, byte[] buffer, int offset, int length, int count) {
+
+        _id = id;
+        _buffer = buffer;
+        _offset = offset;
+        _length = length;
+        _count = count;
+        _text = null;
+    }
+
+    /**
+     * Set the value to the given text.
+     *
+     * @param id
+     * @param text
+     * @param count
+     */
+    public void set(int id, String text, int count) {
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        this.set(id, bytes, 0, bytes.length, count);
+        _text = text;
+    }
+
+    @Override
+    public String toString() {
+
+        return this.getText();
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import org.urban.data.core.io.FileSystem;
+
+/**
+ * Reader factory for column files that reads ahead. The next K column files
+ * are opened and decompressed on a background thread pool into in-memory
+ * buffers. The readers that are returned by the factory are byte-level
+ * column readers on these buffers (see ByteColumnReader).
+ *
+ * Memory is bounded by a byte budget for all buffers that have been read
+ * ahead but not yet been handed to a consumer, and by the maximum size of a
+ * single buffer. Files whose decompressed content exceeds the maximum buffer
+ * size, or that do not fit into the remaining budget, are read directly from
+ * disk by the consuming thread instead. Uncompressed files are only read
+ * ahead if their size is within the maximum buffer size.
+ *
+ * Readers are returned in the order of the given file list. The factory is
+ * not thread-safe. Consumers in multiple threads have to synchronize calls
+ * to hasNext() and next().
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class PrefetchingColumnReaderFactory implements ColumnReaderFactory, AutoCloseable {
+
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_PREFETCH_BYTES = 256L * 1024L * 1024L;
+    public static final int DEFAULT_PREFETCH = 8;
+
+    /**
+     * Decompressed content of a column file. The data is null if the file
+     * exceeds the maximum buffer size.
+     */
+    private static class ColumnData {
+
+        private final byte[] _data;
+        private final int _length;
+        private final long _reserved;
+
+        public ColumnData(byte[] data, int length, long reserved) {
+
+            _data = data;
+            _length = length;
+            _reserved = reserved;
+        }
+    }
+
+    /**
+     * Read the content of a column file into memory.
+     */
+    private class PrefetchTask implements Callable<ColumnData> {
+
+        private final File _file;
+
+        public PrefetchTask(File file) {
+
+            _file = file;
+        }
+
+        @Override
+        public ColumnData call() throws java.io.IOException {
+
+            // The size of uncompressed files is known. Do not read files
+            // that exceed the buffer size twice.
+            if ((!_file.getName().endsWith(".gz")) && (_file.length() > _maxBufferSize)) {
+                return new ColumnData(null, 0, 0);
+            }
+
+            int capacity = (int)Math.min(
+                    Math.max(_file.length(), 1024L),
+                    (long)_maxBufferSize
+            );
+            if (!reserve(capacity)) {
+                return new ColumnData(null, 0, 0);
+            }
+            long reserved = capacity;
+            boolean success = false;
+            try {
+                byte[] data = new byte[capacity];
+                int length = 0;
+                try (InputStream in = FileSystem.openFile(_file)) {
+                    while (true) {
+                        if (length == data.length) {
+                            if (length >= _maxBufferSize) {
+                                return new ColumnData(null, 0, 0);
+                            }
+                            capacity = (int)Math.min(length * 2L, (long)_maxBufferSize);
+                            if (!reserve(capacity - data.length)) {
+                                return new ColumnData(null, 0, 0);
+                            }
+                            reserved += capacity - data.length;
+                            data = Arrays.copyOf(data, capacity);
+                        }
+                        int n = in.read(data, length, data.length - length);
+                        if (n < 0) {
+                            break;
+                        }
+                        length += n;
+                    }
+                }
+                success = true;
+                return new ColumnData(data, length, reserved);
+            } finally {
+                if (!success) {
+                    release(reserved);
+                }
+            }
+        }
+    }
+
+    private final AtomicLong _availableBytes;
+    private final ExecutorService _executor;
+    private final LinkedList<File> _files;
+    private final int _hashLengthThreshold;
+    private final ValueHasher _hasher;
+    private final int _maxBufferSize;
+    private final LinkedList<File> _pendingFiles = new LinkedList<>();
+    private final LinkedList<Future<ColumnData>> _pendingData = new LinkedList<>();
+
+    /**
+     * Initialize the list of column files, the number of files that are read
+     * ahead, the number of background threads, the maximum size of an
+     * in-memory buffer, and the maximum number of bytes for all buffers that
+     * are read ahead.
+     *
+     * @param files
+     * @param hashLengthThreshold
+     * @param hasher
+     * @param prefetch
+     * @param threads
+     * @param maxBufferSize
+     * @param maxPrefetchBytes
+     */
+    public PrefetchingColumnReaderFactory(
+            List<File> files,
+            int hashLengthThreshold,
+            ValueHasher hasher,
+            int prefetch,
+            int threads,
+            int maxBufferSize,
+            long maxPrefetchBytes
+    ) {
+
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("Invalid prefetch count " + prefetch);
+        }
+
+        _files = new LinkedList<>(files);
+        _hashLengthThreshold = hashLengthThreshold;
+        _hasher = hasher;
+        _maxBufferSize = maxBufferSize;
+        _availableBytes = new AtomicLong(maxPrefetchBytes);
+
+        _executor = Executors.newFixedThreadPool(
+                Math.max(1, threads),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "column-prefetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+        for (int iFile = 0; iFile < prefetch; iFile++) {
+            this.submitNext();
+        }
+    }
+
+    public PrefetchingColumnReaderFactory(
+            List<File> files,
+            int hashLengthThreshold,
+            int prefetch,
+            int threads
+    ) {
+
+        this(
+                files,
+                hashLengthThreshold,
+                ValueHasher.getDefault(),
+                prefetch,
+                threads,
+                DEFAULT_MAX_BUFFER_SIZE,
+                DEFAULT_MAX_PREFETCH_BYTES
+        );
+    }
+
+    public PrefetchingColumnReaderFactory(List<File> files, int hashLengthThreshold) {
+
+        this(files, hashLengthThreshold, DEFAULT_PREFETCH, 1);
+    }
+
+    /**
+     * Stop all background tasks. Pending buffers are discarded.
+     */
+    @Override
+    public void close() {
+
+        _files.clear();
+        _pendingFiles.clear();
+        _pendingData.clear();
+        _executor.shutdownNow();
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        return (!_pendingFiles.isEmpty());
+    }
+
+    @Override
+    public ByteColumnReader next() {
+
+        File file = _pendingFiles.poll();
+        Future<ColumnData> task = _pendingData.poll();
+        this.submitNext();
+
+        int columnId = ColumnHelper.getColumnId(file);
+        ColumnData data;
+        try {
+            data = task.get();
+        } catch (java.lang.InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (java.util.concurrent.ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+        this.release(data._reserved);
+        if (data._data == null) {
+            return new ByteColumnReader(
+                    file,
+                    columnId,
+                    ByteColumnReader.DEFAULT_DELIMITER,
+                    _hashLengthThreshold,
+                    _hasher
+            );
+        }
+        return new ByteColumnReader(
+                file,
+                columnId,
+                data._data,
+                data._length,
+                ByteColumnReader.DEFAULT_DELIMITER,
+                _hashLengthThreshold,
+                _hasher
+        );
+    }
+
+    /**
+     * Return bytes to the prefetch budget once a buffer has been handed to a
+     * consumer.
+     *
+     * @param bytes
+     */
+    private void release(long bytes) {
+
+        _availableBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Take the given number of bytes from the prefetch budget. Returns false
+     * if the remaining budget is too small. Prefetch tasks do not wait for
+     * the budget since the consumer may be waiting for them. The budget is
+     * not guarded by the factory monitor since consumers synchronize on the
+     * factory while they wait for a prefetch task.
+     *
+     * @param bytes
+     * @return
+     */
+    private boolean reserve(long bytes) {
+
+        while (true) {
+            long available = _availableBytes.get();
+            if (bytes > available) {
+                return false;
+            }
+            if (_availableBytes.compareAndSet(available, available - bytes)) {
+                return true;
+            }
+        }
+    }
+
+    private void submitNext() {
+
+        if (!_files.isEmpty()) {
+            File file = _files.poll();
+            _pendingFiles.add(file);
+            _pendingData.add(_executor.submit(new PrefetchTask(file)));
+        } else if (_pendingFiles.isEmpty()) {
+            _executor.shutdown();
+        }
+    }
+}
@@ -22,10 +22,8 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.urban.data.core.constraint.Threshold;
-import org.urban.data.core.io.FileListReader;
 import org.urban.data.core.io.FileSystem;
 import org.urban.data.core.similarity.Support;
-import org.urban.data.core.profiling.datatype.DefaultDataTypeAnnotator;
 
 /**
  * Identify columns that contain text values. Takes a list of column files as
@@ -33,58 +31,75 @@ import org.urban.data.core.profiling.datatype.DefaultDataTypeAnnotator;
  * values (from the distinct list of values). Outputs the absolute column file
  * path if the fraction of text values satisfies a given threshold constraint.
  * 
+ * The text fraction is taken from the column profiles (see ColumnProfiler).
+ * The input is either a list of column files or a profile file.
+ * 
  * @author Heiko Mueller <heiko.mueller@nyu.edu>
  */
 public class TextColumnFinder {
     
+    /**
+     * Output column files for profiles that have a fraction of text values
+     * that satisfies the given constraint.
+     * 
+     * @param profiles
+     * @param threshold
+     * @param out 
+     */
+    public void print(List<ColumnProfile> profiles, Threshold threshold, PrintWriter out) {
+        
+        for (ColumnProfile profile : profiles) {
+            if (profile.profiledCount() > 0) {
+                BigDecimal frac = new Support(
+                        profile.textCount(),
+                        profile.profiledCount()
+                ).value();
+                if (threshold.isSatisfied(frac)) {
+                    out.println(profile.file().getAbsolutePath());
+                }
+            }
+        }
+    }
+    
     /**
      * Output column files that have a fraction of text values that satisfies
      * the given constraint.
      * 
      * @param files
      * @param threshold
+     * @param threads
      * @param out
      * @throws java.io.IOException 
      */
-    public void run(List<File> files, Threshold threshold, PrintWriter out) throws java.io.IOException {
+    public void run(
+            List<File> files,
+            Threshold threshold,
+            int threads,
+            PrintWriter out
+    ) throws java.io.IOException {
         
-        DefaultDataTypeAnnotator typeCheck = new DefaultDataTypeAnnotator();
+        this.print(new ColumnProfiler(threads).run(files, -1), threshold, out);
+    }
+    
+    public void run(List<File> files, Threshold threshold, PrintWriter out) throws java.io.IOException {
         
-        for (File file : files) {
-            try (FlexibleColumnReader reader = new FlexibleColumnReader(file)) {
-                int textCount = 0;
-                int valueCount = 0;
-                while (reader.hasNext()) {
-                    if (typeCheck.getType(reader.next().getText()).isText()) {
-                        textCount++;
-                    }
-                    valueCount++;
-                }
-                if (valueCount > 0) {
-                    BigDecimal frac = new Support(textCount, valueCount).value();
-                    if (threshold.isSatisfied(frac)) {
-                        out.println(file.getAbsolutePath());
-                    }
-                }
-            } catch (java.lang.NumberFormatException ex) {
-                LOGGER.log(Level.SEVERE, file.getName(), ex);
-                System.exit(-1);
-            }
-        }
+        this.run(files, threshold, 1, out);
     }
     
     private static final String COMMAND =
             "Usage:\n" +
-            "  <column-file-or-dir>\n" +
+            "  <column-file-or-dir | profile-file>\n" +
             "  <threshold-constraint>\n" +
-            "  <output-file>";
+            "  <output-file>\n" +
+            "  {<threads>}\n" +
+            "  {<profile-cache-file>}";
     
     private static final Logger LOGGER = Logger
             .getLogger(TextColumnFinder.class.getName());
     
     public static void main(String[] args) {
         
-        if (args.length != 3) {
+        if ((args.length < 3) || (args.length > 5)) {
             System.out.println(COMMAND);
             System.exit(-1);
         }
@@ -92,14 +107,22 @@ public class TextColumnFinder {
         File inFile = new File(args[0]);
         Threshold threshold = Threshold.getConstraint(args[1]);
         File outputFile = new File(args[2]);
+        int threads = 1;
+        if (args.length >= 4) {
+            threads = Integer.parseInt(args[3]);
+        }
+        File cacheFile = null;
+        if (args.length == 5) {
+            cacheFile = new File(args[4]);
+        }
         
         try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
-            new TextColumnFinder().run(
-                    new FileListReader(".txt").listFiles(inFile),
+            new TextColumnFinder().print(
+                    ColumnProfiler.load(inFile, -1, threads, cacheFile),
                     threshold,
                     out
             );
-        } catch (java.io.IOException ex) {
+        } catch (java.io.IOException | java.lang.NumberFormatException ex) {
             LOGGER.log(Level.SEVERE, "RUN", ex);
             System.exit(-1);
         }
@@ -23,7 +23,9 @@ import org.urban.data.core.object.filter.ObjectFilter;
 import org.urban.data.core.value.ValueCounter;
 
 /**
- * Reader factory for column files. Uses the flexible column reader.
+ * Reader factory for column files. Uses the byte-level column reader, i.e.,
+ * values that are returned by the readers are only valid until the next
+ * value is read.
  * 
  * @author Heiko Mueller <heiko.mueller@nyu.edu>
  */
@@ -79,6 +81,6 @@ public class ValueColumnsReaderFactory implements ColumnReaderFactory {
 
         File file = _files.pop();
         int columnId = ColumnHelper.getColumnId(file);
-        return new FlexibleColumnReader(file, columnId, _hashLengthThreshold);
+        return new ByteColumnReader(file, columnId, _hashLengthThreshold);
     }
 }
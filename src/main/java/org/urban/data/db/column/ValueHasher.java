@@ -0,0 +1,306 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import org.urban.data.core.io.FileSystem;
+
+/**
+ * Replace long column values by their SHA-256 hash. The hasher is
+ * thread-safe. Each thread uses its own message digest and hex character
+ * buffer.
+ *
+ * The mapping from hash to original value can be kept in a bounded
+ * dictionary for reverse lookup. Entries are distributed over a fixed number
+ * of segments based on the hash. Each segment is synchronized separately and
+ * removes its oldest entry when it is full. If the dictionary size is not
+ * positive no mappings are kept.
+ *
+ * The mapping can also be written to a tab-delimited side file with columns
+ * hash and value. A mapping is written to the file only if it is not
+ * contained in the dictionary, i.e., with a dictionary, most duplicates are
+ * written only once. Mappings are handed to a separate writer thread through
+ * a bounded queue. No lock is held while writing to the file. Hashing threads
+ * share a read lock for adding to the queue. Closing the hasher takes the
+ * write lock, i.e., no mapping is added after the end of the queue.
+ *
+ * Column readers that are not given a hasher explicitly use the default
+ * hasher. The default hasher keeps a dictionary of the default size but does
+ * not write a side file. Mappings that are removed from its dictionary are
+ * lost (see warnIfNoMappingFile).
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ValueHasher implements AutoCloseable {
+
+    public static final int DEFAULT_DICTIONARY_SIZE = 10000;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Marker that signals the end of the queue to the writer thread.
+     */
+    private static final String END_OF_QUEUE = new String();
+
+    private static final int QUEUE_SIZE = 10000;
+
+    private static final int SEGMENTS = 16;
+
+    private static ValueHasher _default = new ValueHasher(DEFAULT_DICTIONARY_SIZE);
+
+    private static final Logger LOGGER = Logger
+            .getLogger(ValueHasher.class.getName());
+
+    /**
+     * Write queued mappings to the side file until the end of the queue is
+     * reached.
+     */
+    private static class MappingWriter extends Thread {
+
+        private final PrintWriter _out;
+        private final BlockingQueue<String> _queue;
+
+        public MappingWriter(PrintWriter out, BlockingQueue<String> queue) {
+
+            _out = out;
+            _queue = queue;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                while (true) {
+                    String line = _queue.take();
+                    if (line == END_OF_QUEUE) {
+                        break;
+                    }
+                    _out.println(line);
+                }
+            } catch (java.lang.InterruptedException ex) {
+            } finally {
+                _out.close();
+            }
+        }
+    }
+
+    private final ThreadLocal<MessageDigest> _digest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (java.security.NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    };
+    private final ThreadLocal<char[]> _hexBuffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[64];
+        }
+    };
+    private volatile BlockingQueue<String> _queue = null;
+    private final ReadWriteLock _queueLock = new ReentrantReadWriteLock();
+    private final Map<String, String>[] _segments;
+    private MappingWriter _writer = null;
+
+    /**
+     * Initialize the dictionary size and the optional side file. If the
+     * mapping file is null, mappings are only kept in the dictionary.
+     *
+     * @param mappingFile
+     * @param dictionarySize
+     * @throws java.io.IOException
+     */
+    public ValueHasher(File mappingFile, int dictionarySize) throws java.io.IOException {
+
+        _segments = createSegments(dictionarySize);
+        if (mappingFile != null) {
+            FileSystem.createParentFolder(mappingFile);
+            _queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            _writer = new MappingWriter(FileSystem.openPrintWriter(mappingFile), _queue);
+            _writer.start();
+        }
+    }
+
+    public ValueHasher(int dictionarySize) {
+
+        _segments = createSegments(dictionarySize);
+    }
+
+    /**
+     * Write all pending mappings and close the mapping file.
+     */
+    @Override
+    public synchronized void close() {
+
+        if (_writer != null) {
+            // Wait for all pending additions to the queue. No mapping can be
+            // added once the queue is removed.
+            BlockingQueue<String> queue;
+            _queueLock.writeLock().lock();
+            try {
+                queue = _queue;
+                _queue = null;
+            } finally {
+                _queueLock.writeLock().unlock();
+            }
+            try {
+                queue.put(END_OF_QUEUE);
+                _writer.join();
+            } catch (java.lang.InterruptedException ex) {
+                _writer.interrupt();
+                Thread.currentThread().interrupt();
+            }
+            _writer = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String>[] createSegments(int size) {
+
+        if (size <= 0) {
+            return null;
+        }
+        Map<String, String>[] segments = new Map[SEGMENTS];
+        final int segmentSize = (size + SEGMENTS - 1) / SEGMENTS;
+        for (int iSegment = 0; iSegment < SEGMENTS; iSegment++) {
+            segments[iSegment] = new LinkedHashMap<String, String>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return (this.size() > segmentSize);
+                }
+            };
+        }
+        return segments;
+    }
+
+    /**
+     * Get the default hasher.
+     *
+     * @return
+     */
+    public static synchronized ValueHasher getDefault() {
+
+        return _default;
+    }
+
+    /**
+     * Get the SHA-256 hash for the given value as lower-case hex string.
+     *
+     * @param value
+     * @return
+     */
+    public String hash(String value) {
+
+        byte[] digest = _digest.get().digest(value.getBytes(StandardCharsets.UTF_8));
+        char[] buf = _hexBuffer.get();
+        for (int iByte = 0; iByte < digest.length; iByte++) {
+            buf[iByte * 2] = HEX[(digest[iByte] >>> 4) & 0x0F];
+            buf[iByte * 2 + 1] = HEX[digest[iByte] & 0x0F];
+        }
+        String hash = new String(buf, 0, digest.length * 2);
+
+        boolean isNew = true;
+        Map<String, String> segment = this.segment(hash);
+        if (segment != null) {
+            synchronized (segment) {
+                isNew = (segment.put(hash, value) == null);
+            }
+        }
+        if ((isNew) && (_queue != null)) {
+            _queueLock.readLock().lock();
+            try {
+                if (_queue != null) {
+                    _queue.put(hash + "\t" + value);
+                }
+            } catch (java.lang.InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            } finally {
+                _queueLock.readLock().unlock();
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Get the original value for a hash. Returns null if the hash is not
+     * in the dictionary.
+     *
+     * @param hash
+     * @return
+     */
+    public String lookup(String hash) {
+
+        Map<String, String> segment = this.segment(hash);
+        if (segment == null) {
+            return null;
+        }
+        synchronized (segment) {
+            return segment.get(hash);
+        }
+    }
+
+    private Map<String, String> segment(String hash) {
+
+        if (_segments == null) {
+            return null;
+        }
+        return _segments[(hash.hashCode() & 0x7FFFFFFF) % SEGMENTS];
+    }
+
+    /**
+     * Set the default hasher.
+     *
+     * @param hasher
+     */
+    public static synchronized void setDefault(ValueHasher hasher) {
+
+        _default = hasher;
+    }
+
+    /**
+     * Log a warning if values are hashed but the mapping from hash to value
+     * is not written to a side file.
+     *
+     * @param hashLengthThreshold
+     * @param mappingFile
+     */
+    public static void warnIfNoMappingFile(int hashLengthThreshold, File mappingFile) {
+
+        if ((hashLengthThreshold != -1) && (mappingFile == null)) {
+            LOGGER.warning(
+                    "No hash mapping file given. Mappings of hashed values " +
+                    "are only kept in memory for the last " +
+                    DEFAULT_DICTIONARY_SIZE + " values"
+            );
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.column;
+
+/**
+ * Intersection kernels for sorted lists of node identifier. The overlap of two
+ * lists is the sum of the weights (i.e., term counts) of the nodes that occur
+ * in both lists. Lists are given as ranges in (packed) arrays.
+ *
+ * Lists of similar length are intersected using a linear merge. If one list
+ * is much shorter than the other the elements of the shorter list are located
+ * in the longer list using galloping (exponential) search.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public final class WeightedOverlap {
+
+    /**
+     * Use galloping search if the longer list is more than this many times
+     * longer than the shorter list.
+     */
+    public static final int GALLOP_RATIO = 32;
+
+    /**
+     * Find the first position in values[start, end) that contains a value
+     * greater or equal to the given key. Returns end if no such position
+     * exists.
+     *
+     * @param values
+     * @param start
+     * @param end
+     * @param key
+     * @return
+     */
+    private static int gallop(int[] values, int start, int end, int key) {
+
+        int low = start;
+        int step = 1;
+        int high = start;
+        while ((high < end) && (values[high] < key)) {
+            low = high + 1;
+            high = start + step;
+            step <<= 1;
+        }
+        if (high > end) {
+            high = end;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Weighted overlap of two sorted lists.
+     *
+     * @param values1
+     * @param start1
+     * @param end1
+     * @param values2
+     * @param start2
+     * @param end2
+     * @param weights
+     * @return
+     */
+    public static int overlap(
+            int[] values1,
+            int start1,
+            int end1,
+            int[] values2,
+            int start2,
+            int end2,
+            int[] weights
+    ) {
+
+        int len1 = end1 - start1;
+        int len2 = end2 - start2;
+        if ((len1 == 0) || (len2 == 0)) {
+            return 0;
+        }
+
+        if ((long)len1 * GALLOP_RATIO < len2) {
+            return overlapGallop(values1, start1, end1, values2, start2, end2, weights);
+        } else if ((long)len2 * GALLOP_RATIO < len1) {
+            return overlapGallop(values2, start2, end2, values1, start1, end1, weights);
+        }
+
+        // Quick check if the value ranges of both lists overlap at all
+        if ((values1[end1 - 1] < values2[start2]) || (values2[end2 - 1] < values1[start1])) {
+            return 0;
+        }
+
+        int idx1 = start1;
+        int idx2 = start2;
+        int overlap = 0;
+        while ((idx1 < end1) && (idx2 < end2)) {
+            final int val1 = values1[idx1];
+            final int val2 = values2[idx2];
+            if (val1 < val2) {
+                idx1++;
+            } else if (val1 > val2) {
+                idx2++;
+            } else {
+                overlap += weights[val1];
+                idx1++;
+                idx2++;
+            }
+        }
+        return overlap;
+    }
+
+    public static int overlap(int[] values1, int[] values2, int[] weights) {
+
+        return overlap(values1, 0, values1.length, values2, 0, values2.length, weights);
+    }
+
+    private static int overlapGallop(
+            int[] shortList,
+            int shortStart,
+            int shortEnd,
+            int[] longList,
+            int longStart,
+            int longEnd,
+            int[] weights
+    ) {
+
+        int overlap = 0;
+        int pos = longStart;
+        for (int idx = shortStart; idx < shortEnd; idx++) {
+            final int key = shortList[idx];
+            pos = gallop(longList, pos, longEnd, key);
+            if (pos == longEnd) {
+                break;
+            }
+            if (longList[pos] == key) {
+                overlap += weights[key];
+                pos++;
+            }
+        }
+        return overlap;
+    }
+
+    /**
+     * Sum of weights for all elements in the given list.
+     *
+     * @param values
+     * @param start
+     * @param end
+     * @param weights
+     * @return
+     */
+    public static int size(int[] values, int start, int end, int[] weights) {
+
+        int size = 0;
+        for (int idx = start; idx < end; idx++) {
+            size += weights[values[idx]];
+        }
+        return size;
+    }
+}
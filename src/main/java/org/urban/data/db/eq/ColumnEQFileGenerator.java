@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.eq;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.urban.data.core.io.FileListReader;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.db.column.ValueHasher;
+import org.urban.data.db.term.TeeTermConsumer;
+import org.urban.data.db.term.TermConsumer;
+import org.urban.data.db.term.TermIndexFormat;
+import org.urban.data.db.term.TermIndexGenerator;
+
+/**
+ * Create an equivalence class file directly from a set of column files.
+ *
+ * The merged output of the term index generator is streamed into the
+ * equivalence class generator. The term index is only written if a term
+ * index file is given. The result is the same as running TermIndexGenerator
+ * followed by EQFileGenerator without writing and re-reading the full term
+ * index. Use '-' as term index file to only write the mapping of hashed
+ * values.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class ColumnEQFileGenerator {
+
+    private static final String COMMAND =
+            "Usage:\n" +
+            "  <column-file-or-dir>\n" +
+            "  <mem-buffer-size> [<terms> | <bytes>{K|M|G}{:<heap-watermark>}]\n" +
+            "  <hash-length-threshold>\n" +
+            "  <eq-file>\n" +
+            "  {<threads>}\n" +
+            "  {<term-index-file>} [.bin suffix for binary format]\n" +
+            "  {<hash-mapping-file>}";
+
+    private static final Logger LOGGER = Logger
+            .getLogger(ColumnEQFileGenerator.class.getName());
+
+    public static void main(String[] args) {
+
+        if ((args.length < 4) || (args.length > 7)) {
+            System.out.println(COMMAND);
+            System.exit(-1);
+        }
+
+        File inputDirectory = new File(args[0]);
+        int hashLengthThreshold = Integer.parseInt(args[2]);
+        File outputFile = new File(args[3]);
+        int threads = 1;
+        if (args.length >= 5) {
+            threads = Integer.parseInt(args[4]);
+        }
+        File termIndexFile = null;
+        if ((args.length >= 6) && (!args[5].equals("-"))) {
+            termIndexFile = new File(args[5]);
+        }
+        File mappingFile = null;
+        if (args.length == 7) {
+            mappingFile = new File(args[6]);
+        }
+        ValueHasher.warnIfNoMappingFile(hashLengthThreshold, mappingFile);
+
+        FileSystem.createParentFolder(outputFile);
+        try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
+            // Write the mapping of hashed values to a side file.
+            if (mappingFile != null) {
+                ValueHasher.setDefault(
+                        new ValueHasher(
+                                mappingFile,
+                                ValueHasher.DEFAULT_DICTIONARY_SIZE
+                        )
+                );
+            }
+            TermConsumer consumer = new CompressedTermIndexGenerator(out);
+            if (termIndexFile != null) {
+                FileSystem.createParentFolder(termIndexFile);
+                consumer = new TeeTermConsumer(
+                        TermIndexFormat.getWriter(termIndexFile),
+                        consumer
+                );
+            }
+            new TermIndexGenerator().run(
+                    new FileListReader(".txt").listFiles(inputDirectory),
+                    TermIndexGenerator.getSpillCondition(args[1], threads),
+                    hashLengthThreshold,
+                    threads,
+                    outputFile.getAbsoluteFile().getParentFile(),
+                    consumer
+            );
+        } catch (java.io.IOException ex) {
+            LOGGER.log(Level.SEVERE, outputFile.getName(), ex);
+            // System.exit does not run the finally block.
+            ValueHasher.getDefault().close();
+            System.exit(-1);
+        } finally {
+            ValueHasher.getDefault().close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.eq;
+
+/**
+ * 64-bit fingerprint for sorted lists of column identifier. Uses the mixing
+ * steps of the 64-bit MurmurHash3 for each column identifier and the
+ * MurmurHash3 finalizer on the result. Equal column sets have equal
+ * fingerprints only if the column lists are sorted.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public final class ColumnSetHash {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Fingerprint for the first length elements of the given sorted array.
+     *
+     * @param columns
+     * @param length
+     * @return
+     */
+    public static long hash(int[] columns, int length) {
+
+        long h = SEED;
+        for (int iCol = 0; iCol < length; iCol++) {
+            long k = columns[iCol] & 0xFFFFFFFFL;
+            k *= C1;
+            k = Long.rotateLeft(k, 31);
+            k *= C2;
+            h ^= k;
+            h = Long.rotateLeft(h, 27);
+            h = h * 5 + 0x52dce729;
+        }
+        h ^= length;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static long hash(int[] columns) {
+
+        return hash(columns, columns.length);
+    }
+}
@@ -0,0 +1,595 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.eq;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.urban.data.core.prune.SizeFunction;
+import org.urban.data.core.set.HashIDSet;
+import org.urban.data.core.set.HashObjectSet;
+import org.urban.data.core.set.IDSet;
+import org.urban.data.core.set.IDSetImpl;
+import org.urban.data.core.set.ImmutableIDSet;
+import org.urban.data.core.set.IdentifiableObjectSet;
+import org.urban.data.db.column.Column;
+import org.urban.data.db.column.ColumnIndex;
+
+/**
+ * Index of equivalence classes that stores identifier, term lists, and column
+ * lists in flat primitive arrays (compressed sparse row layout). The terms
+ * (columns) of the i-th equivalence class are the values between offsets[i]
+ * and offsets[i + 1] in the packed value array. Term and column lists are
+ * sorted.
+ *
+ * Iterating over the index returns lightweight views that reference the
+ * arrays. The identifier sets that are returned by terms() and columns() of a
+ * view are read-only views on the packed arrays.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class CompactEQIndex implements EQStream, Iterable<EQ>, SizeFunction {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Read-only identifier set on a sorted slice of a packed value array.
+     */
+    private static class SliceIDSet extends IDSetImpl {
+
+        private final int _end;
+        private final int _start;
+        private final int[] _values;
+
+        public SliceIDSet(int[] values, int start, int end) {
+
+            _values = values;
+            _start = start;
+            _end = end;
+        }
+
+        @Override
+        public boolean contains(Integer id) {
+
+            return Arrays.binarySearch(_values, _start, _end, id) >= 0;
+        }
+
+        @Override
+        public ImmutableIDSet create(Collection<Integer> values) {
+
+            return new ImmutableIDSet(values);
+        }
+
+        @Override
+        public int first() {
+
+            if (_start == _end) {
+                throw new NoSuchElementException();
+            }
+            return _values[_start];
+        }
+
+        @Override
+        public boolean isEmpty() {
+
+            return (_start == _end);
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+
+            return new Iterator<Integer>() {
+                private int _pos = _start;
+                @Override
+                public boolean hasNext() {
+                    return _pos < _end;
+                }
+                @Override
+                public Integer next() {
+                    if (_pos >= _end) {
+                        throw new NoSuchElementException();
+                    }
+                    return _values[_pos++];
+                }
+            };
+        }
+
+        @Override
+        public int length() {
+
+            return _end - _start;
+        }
+
+        @Override
+        public int[] toArray() {
+
+            return Arrays.copyOfRange(_values, _start, _end);
+        }
+
+        @Override
+        public List<Integer> toList() {
+
+            ArrayList<Integer> values = new ArrayList<>(_end - _start);
+            for (int iValue = _start; iValue < _end; iValue++) {
+                values.add(_values[iValue]);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Flyweight view on a single equivalence class in the index.
+     */
+    private class EQView implements EQ {
+
+        private final int _index;
+
+        public EQView(int index) {
+
+            _index = index;
+        }
+
+        @Override
+        public IDSet columns() {
+
+            return new SliceIDSet(
+                    _columns,
+                    _columnOffsets[_index],
+                    _columnOffsets[_index + 1]
+            );
+        }
+
+        @Override
+        public int id() {
+
+            return _ids[_index];
+        }
+
+        @Override
+        public IDSet terms() {
+
+            return new SliceIDSet(
+                    _terms,
+                    _termOffsets[_index],
+                    _termOffsets[_index + 1]
+            );
+        }
+
+        @Override
+        public void write(PrintWriter out) {
+
+            StringBuilder line = new StringBuilder();
+            line.append(_ids[_index]).append("\t");
+            appendList(line, termList(_index));
+            line.append("\t");
+            appendList(line, columnList(_index));
+            out.println(line.toString());
+        }
+    }
+
+    private ColumnIndex _columnIndex = null;
+    private int[] _columnOffsets;
+    private int[] _columns;
+    private int[] _ids;
+    private int _maxId = -1;
+    private int[] _nodeSizes = null;
+    private int[] _positions;
+    private int _size = 0;
+    private int[] _termOffsets;
+    private int[] _terms;
+
+    public CompactEQIndex(EQStream stream) {
+
+        this.init();
+        this.load(stream);
+        this.finish();
+    }
+
+    public CompactEQIndex(File eqFile) throws java.io.IOException {
+
+        this.init();
+        if (MappedEQReader.canMap(eqFile)) {
+            new MappedEQReader(eqFile).read(new EQArrayConsumer() {
+                @Override
+                public void consume(
+                        int id,
+                        int[] terms,
+                        int termCount,
+                        int[] columns,
+                        int columnCount
+                ) {
+                    add(id, terms, termCount, columns, columnCount);
+                }
+            });
+        } else {
+            this.load(new EQReader(eqFile));
+        }
+        this.finish();
+    }
+
+    private void add(
+            int id,
+            int[] terms,
+            int termCount,
+            int[] columns,
+            int columnCount
+    ) {
+
+        if (id < 0) {
+            throw new IllegalArgumentException("Invalid identifier " + id);
+        }
+
+        if (_size + 1 >= _termOffsets.length) {
+            int capacity = _termOffsets.length * 2;
+            _ids = Arrays.copyOf(_ids, capacity);
+            _termOffsets = Arrays.copyOf(_termOffsets, capacity);
+            _columnOffsets = Arrays.copyOf(_columnOffsets, capacity);
+        }
+
+        int termStart = _termOffsets[_size];
+        _terms = ensureCapacity(_terms, termStart + termCount);
+        System.arraycopy(terms, 0, _terms, termStart, termCount);
+        Arrays.sort(_terms, termStart, termStart + termCount);
+
+        int columnStart = _columnOffsets[_size];
+        _columns = ensureCapacity(_columns, columnStart + columnCount);
+        System.arraycopy(columns, 0, _columns, columnStart, columnCount);
+        Arrays.sort(_columns, columnStart, columnStart + columnCount);
+
+        _ids[_size] = id;
+        _size++;
+        _termOffsets[_size] = termStart + termCount;
+        _columnOffsets[_size] = columnStart + columnCount;
+
+        if (id > _maxId) {
+            _maxId = id;
+        }
+    }
+
+    private static void appendList(StringBuilder buf, int[] values) {
+
+        for (int iValue = 0; iValue < values.length; iValue++) {
+            if (iValue > 0) {
+                buf.append(",");
+            }
+            buf.append(values[iValue]);
+        }
+    }
+
+    /**
+     * Number of columns that the equivalence class at the given position in
+     * the index occurs in.
+     *
+     * @param index
+     * @return
+     */
+    public int columnCount(int index) {
+
+        return _columnOffsets[index + 1] - _columnOffsets[index];
+    }
+
+    /**
+     * Copy of the sorted list of column identifier for the equivalence class
+     * at the given position in the index.
+     *
+     * @param index
+     * @return
+     */
+    public int[] columnList(int index) {
+
+        return Arrays.copyOfRange(
+                _columns,
+                _columnOffsets[index],
+                _columnOffsets[index + 1]
+        );
+    }
+
+    /**
+     * Inverted index from columns to the nodes that occur in them. The index
+     * is built on first access and then reused.
+     *
+     * @return
+     */
+    public synchronized ColumnIndex columnIndex() {
+
+        if (_columnIndex == null) {
+            _columnIndex = new ColumnIndex(this);
+        }
+        return _columnIndex;
+    }
+
+    public IdentifiableObjectSet<Column> columns() {
+
+        return this.columnIndex().columns();
+    }
+
+    public int[] columnSizes() {
+
+        int maxColumnId = -1;
+        for (int iCol = 0; iCol < _columnOffsets[_size]; iCol++) {
+            if (_columns[iCol] > maxColumnId) {
+                maxColumnId = _columns[iCol];
+            }
+        }
+
+        int[] values = new int[maxColumnId + 1];
+        for (int iNode = 0; iNode < _size; iNode++) {
+            int termCount = this.termCount(iNode);
+            int end = _columnOffsets[iNode + 1];
+            for (int iCol = _columnOffsets[iNode]; iCol < end; iCol++) {
+                values[_columns[iCol]] += termCount;
+            }
+        }
+        return values;
+    }
+
+    public boolean contains(int id) {
+
+        return this.indexOf(id) != -1;
+    }
+
+    private static int[] ensureCapacity(int[] values, int size) {
+
+        if (size <= values.length) {
+            return values;
+        }
+        return Arrays.copyOf(values, Math.max(size, values.length * 2));
+    }
+
+    private void finish() {
+
+        _ids = Arrays.copyOf(_ids, _size);
+        _termOffsets = Arrays.copyOf(_termOffsets, _size + 1);
+        _terms = Arrays.copyOf(_terms, _termOffsets[_size]);
+        _columnOffsets = Arrays.copyOf(_columnOffsets, _size + 1);
+        _columns = Arrays.copyOf(_columns, _columnOffsets[_size]);
+
+        _positions = new int[_maxId + 1];
+        Arrays.fill(_positions, -1);
+        for (int iNode = 0; iNode < _size; iNode++) {
+            if (_positions[_ids[iNode]] != -1) {
+                throw new IllegalArgumentException("Duplicate identifier " + _ids[iNode]);
+            }
+            _positions[_ids[iNode]] = iNode;
+        }
+    }
+
+    public EQ get(int id) {
+
+        int index = this.indexOf(id);
+        if (index == -1) {
+            return null;
+        }
+        return new EQView(index);
+    }
+
+    public int getMaxId() {
+
+        return _maxId;
+    }
+
+    @Override
+    public int getSize(int id) {
+
+        return this.nodeSizes()[id];
+    }
+
+    /**
+     * Identifier of the equivalence class at the given position in the index.
+     *
+     * @param index
+     * @return
+     */
+    public int id(int index) {
+
+        return _ids[index];
+    }
+
+    /**
+     * Position of the equivalence class with the given identifier in the
+     * index. The result is -1 if the index does not contain the identifier.
+     *
+     * @param id
+     * @return
+     */
+    public int indexOf(int id) {
+
+        if ((id < 0) || (id >= _positions.length)) {
+            return -1;
+        }
+        return _positions[id];
+    }
+
+    private void init() {
+
+        _ids = new int[INITIAL_CAPACITY];
+        _termOffsets = new int[INITIAL_CAPACITY];
+        _terms = new int[INITIAL_CAPACITY];
+        _columnOffsets = new int[INITIAL_CAPACITY];
+        _columns = new int[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public Iterator<EQ> iterator() {
+
+        return new Iterator<EQ>() {
+            private int _index = 0;
+            @Override
+            public boolean hasNext() {
+                return _index < _size;
+            }
+            @Override
+            public EQ next() {
+                if (_index >= _size) {
+                    throw new NoSuchElementException();
+                }
+                return new EQView(_index++);
+            }
+        };
+    }
+
+    public IDSet keys() {
+
+        return new HashIDSet(Arrays.copyOf(_ids, _size));
+    }
+
+    public int length() {
+
+        return _size;
+    }
+
+    private void load(EQStream stream) {
+
+        stream.stream(new EQConsumer() {
+            @Override
+            public void close() {
+            }
+            @Override
+            public void consume(EQ node) {
+                int[] terms = node.terms().toArray();
+                int[] columns = node.columns().toArray();
+                add(node.id(), terms, terms.length, columns, columns.length);
+            }
+            @Override
+            public void open() {
+            }
+        });
+    }
+
+    public IdentifiableObjectSet<Node> nodes() {
+
+        HashObjectSet<Node> nodes = new HashObjectSet<>();
+        for (int iNode = 0; iNode < _size; iNode++) {
+            nodes.add(
+                    new Node(_ids[iNode], this.columnList(iNode), this.termCount(iNode))
+            );
+        }
+        return nodes;
+    }
+
+    public int[] nodeSizes() {
+
+        if (_nodeSizes == null) {
+            _nodeSizes = new int[_maxId + 1];
+            for (int iNode = 0; iNode < _size; iNode++) {
+                _nodeSizes[_ids[iNode]] = this.termCount(iNode);
+            }
+        }
+        return _nodeSizes;
+    }
+
+    /**
+     * Distribute the identifier of all columns in the database across a given
+     * number of files. Uses the same file naming as EQIndex.splitColumns.
+     *
+     * @param numberOfFiles
+     * @param namePrefix
+     * @param outputDir
+     * @throws java.io.IOException
+     */
+    public void splitColumns(
+            int numberOfFiles,
+            String namePrefix,
+            File outputDir
+    ) throws java.io.IOException {
+
+        EQHelper.splitIdentifier(this.columnIndex().columnIds(), numberOfFiles, namePrefix, outputDir);
+    }
+
+    /**
+     * Distribute the identifier of all nodes in the index across a given
+     * number of files. Uses the same file naming as EQIndex.splitNodes.
+     *
+     * @param numberOfFiles
+     * @param namePrefix
+     * @param outputDir
+     * @throws java.io.IOException
+     */
+    public void splitNodes(
+            int numberOfFiles,
+            String namePrefix,
+            File outputDir
+    ) throws java.io.IOException {
+
+        EQHelper.splitIdentifier(this.keys(), numberOfFiles, namePrefix, outputDir);
+    }
+
+    @Override
+    public void stream(EQConsumer consumer) {
+
+        consumer.open();
+
+        for (int iNode = 0; iNode < _size; iNode++) {
+            consumer.consume(new EQView(iNode));
+        }
+        consumer.close();
+    }
+
+    /**
+     * Pass all equivalence classes in the index to the given array consumer.
+     * The arrays are buffers that are reused for all equivalence classes.
+     *
+     * @param consumer
+     */
+    public void stream(EQArrayConsumer consumer) {
+
+        int[] terms = new int[0];
+        int[] columns = new int[0];
+
+        for (int iNode = 0; iNode < _size; iNode++) {
+            int termCount = this.termCount(iNode);
+            terms = ensureCapacity(terms, termCount);
+            System.arraycopy(_terms, _termOffsets[iNode], terms, 0, termCount);
+            int columnCount = this.columnCount(iNode);
+            columns = ensureCapacity(columns, columnCount);
+            System.arraycopy(_columns, _columnOffsets[iNode], columns, 0, columnCount);
+            consumer.consume(_ids[iNode], terms, termCount, columns, columnCount);
+        }
+    }
+
+    /**
+     * Number of terms in the equivalence class at the given position in the
+     * index.
+     *
+     * @param index
+     * @return
+     */
+    public int termCount(int index) {
+
+        return _termOffsets[index + 1] - _termOffsets[index];
+    }
+
+    /**
+     * Copy of the sorted list of term identifier for the equivalence class at
+     * the given position in the index.
+     *
+     * @param index
+     * @return
+     */
+    public int[] termList(int index) {
+
+        return Arrays.copyOfRange(
+                _terms,
+                _termOffsets[index],
+                _termOffsets[index + 1]
+        );
+    }
+}
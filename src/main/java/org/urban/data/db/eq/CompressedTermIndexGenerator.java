@@ -16,9 +16,7 @@
 package org.urban.data.db.eq;
 
 import java.io.PrintWriter;
-import java.util.HashMap;
-import org.urban.data.core.set.HashIDSet;
-import org.urban.data.core.util.count.Counter;
+import java.util.Arrays;
 import org.urban.data.db.term.Term;
 import org.urban.data.db.term.TermConsumer;
 
@@ -31,27 +29,27 @@ import org.urban.data.db.term.TermConsumer;
  * taken into account, i.e., the terms occur in the same columns always with
  * the same frequency.
  * 
+ * Terms are grouped by the 64-bit fingerprint of their sorted column list
+ * (see EQGroupIndex). Equivalence class identifier are assigned in order of
+ * first occurrence starting at one.
+ * 
  */
 public class CompressedTermIndexGenerator implements TermConsumer {
 
-    private final Counter _counter;
-    private HashMap<String, MutableEQ> _eqIndex = null;
+    private EQGroupIndex _eqIndex = null;
     private final PrintWriter _out;
 
     public CompressedTermIndexGenerator(PrintWriter out) {
 
         _out = out;
 
-        _eqIndex = new HashMap<>();
-        _counter = new Counter(0);
+        _eqIndex = new EQGroupIndex();
     }
 
     @Override
     public void close() {
 
-        for (MutableEQ eq : _eqIndex.values()) {
-            eq.write(_out);
-        }
+        _eqIndex.write(1, _out);
 
         System.out.println("NUMBER OF EQUIVALENCE CLASSES IS " + _eqIndex.size());
     }
@@ -59,17 +57,9 @@ public class CompressedTermIndexGenerator implements TermConsumer {
     @Override
     public void consume(Term term) {
 
-        String key = term.columns().toIntString();
-        if (_eqIndex.containsKey(key)) {
-            _eqIndex.get(key).add(term);
-        } else {
-            HashIDSet terms = new HashIDSet();
-            terms.add(term.id());
-            _eqIndex.put(
-                    key,
-                    new MutableEQ(_counter.inc(), term)
-            );
-        }
+        int[] columns = term.columns().toArray();
+        Arrays.sort(columns);
+        _eqIndex.add(columns, columns.length, term.id());
     }
 
     @Override
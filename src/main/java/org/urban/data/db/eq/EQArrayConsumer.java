@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.eq;
+
+/**
+ * Consumer for a stream of equivalence classes that are represented as
+ * primitive arrays of term and column identifier. The arrays are buffers that
+ * are reused by the producer. Only the first termCount (columnCount) elements
+ * are valid and they are only valid for the duration of the consume call.
+ * 
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public interface EQArrayConsumer {
+    
+    public void consume(
+            int id,
+            int[] terms,
+            int termCount,
+            int[] columns,
+            int columnCount
+    );
+}
@@ -38,7 +38,7 @@ public class EQColumnSetSplitter {
         File outputDir = new File(args[2]);
         
         try {
-            new EQIndex(eqFile)
+            new CompactEQIndex(eqFile)
                     .splitColumns(numberOfFiles, "columns", outputDir);
         } catch (java.io.IOException ex) {
             LOGGER.log(Level.SEVERE, "RUN", ex);
@@ -20,6 +20,7 @@ import java.io.PrintWriter;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.urban.data.core.io.FileSystem;
+import org.urban.data.db.term.TermConsumer;
 import org.urban.data.db.term.TermIndexReader;
 
 /**
@@ -29,6 +30,10 @@ import org.urban.data.db.term.TermIndexReader;
  * different columns (i.e., ignore all terms that occur in less columns that
  * the given threshold).
  * 
+ * If the number of partitions is given, terms are hash-partitioned by their
+ * column set into spill files in the directory of the output file and the
+ * partitions are grouped in parallel (see PartitionedEQGenerator).
+ * 
  * @author Heiko Mueller <heiko.mueller@nyu.edu>
  */
 public class EQFileGenerator {
@@ -36,24 +41,44 @@ public class EQFileGenerator {
     private static final String COMMAND = 
             "Usage:\n" +
             "  <term-index-file>\n" +
-            "  <output-file>";
+            "  <output-file>\n" +
+            "  {<partitions>}\n" +
+            "  {<threads>}";
             
     private static final Logger LOGGER = Logger
             .getLogger(EQFileGenerator.class.getName());
     
     public static void main(String[] args) {
         
-        if (args.length != 2) {
+        if ((args.length < 2) || (args.length > 4)) {
             System.out.println(COMMAND);
             System.exit(-1);
         }
         
         File inputFile = new File(args[0]);
         File outputFile = new File(args[1]);     
+        int partitions = 0;
+        if (args.length > 2) {
+            partitions = Integer.parseInt(args[2]);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 3) {
+            threads = Integer.parseInt(args[3]);
+        }
         
         try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
-            new TermIndexReader(inputFile)
-                    .read(new CompressedTermIndexGenerator(out));
+            TermConsumer consumer;
+            if (partitions > 0) {
+                consumer = new PartitionedEQGenerator(
+                        out,
+                        partitions,
+                        threads,
+                        outputFile.getAbsoluteFile().getParentFile()
+                );
+            } else {
+                consumer = new CompressedTermIndexGenerator(out);
+            }
+            new TermIndexReader(inputFile).read(consumer);
         } catch (java.io.IOException ex) {
             LOGGER.log(Level.SEVERE, outputFile.getName(), ex);
             System.exit(-1);
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.eq;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Group terms by the set of columns they occur in. Groups are keyed by the
+ * 64-bit fingerprint of the sorted column list (ColumnSetHash) in an
+ * open-addressing hash table with linear probing. Fingerprint collisions are
+ * resolved by comparing the actual column lists.
+ *
+ * All data is kept in primitive arrays. The column list of each group is
+ * stored once in a shared column array. The terms of each group are kept as
+ * a linked list over shared term arrays. Groups are numbered in the order of
+ * their first occurrence.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class EQGroupIndex {
+
+    private static final int EMPTY = -1;
+    private static final double LOAD_FACTOR = 0.5;
+
+    private int[] _columnOffsets;
+    private int[] _columns;
+    private int _columnsSize = 0;
+    private int _groupCount = 0;
+    private long[] _groupKeys;
+    private int[] _groupTermHead;
+    private int[] _groupTermTail;
+    private int _mask;
+    private long[] _tableKeys;
+    private int[] _tableGroups;
+    private int[] _termIds;
+    private int[] _termNext;
+    private int _termsSize = 0;
+
+    public EQGroupIndex(int expectedGroups) {
+
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedGroups) {
+            capacity *= 2;
+        }
+        this.initTable(capacity);
+
+        int groups = Math.max(16, expectedGroups);
+        _groupKeys = new long[groups];
+        _groupTermHead = new int[groups];
+        _groupTermTail = new int[groups];
+        _columnOffsets = new int[groups + 1];
+        _columns = new int[groups * 4];
+        _termIds = new int[groups * 2];
+        _termNext = new int[groups * 2];
+    }
+
+    public EQGroupIndex() {
+
+        this(1024);
+    }
+
+    /**
+     * Add term to the group for the given sorted list of columns. Creates a
+     * new group if the column list has not been seen before. Returns the
+     * index of the group.
+     *
+     * @param columns
+     * @param length
+     * @param termId
+     * @return
+     */
+    public int add(int[] columns, int length, int termId) {
+
+        long key = ColumnSetHash.hash(columns, length);
+
+        int slot = (int)(key ^ (key >>> 32)) & _mask;
+        int group;
+        while ((group = _tableGroups[slot]) != EMPTY) {
+            if ((_tableKeys[slot] == key) && (this.equalColumns(group, columns, length))) {
+                break;
+            }
+            slot = (slot + 1) & _mask;
+        }
+
+        if (group == EMPTY) {
+            group = this.addGroup(key, columns, length);
+            _tableKeys[slot] = key;
+            _tableGroups[slot] = group;
+            if (_groupCount > _tableGroups.length * LOAD_FACTOR) {
+                this.rehash();
+            }
+        }
+
+        this.addTerm(group, termId);
+
+        return group;
+    }
+
+    private int addGroup(long key, int[] columns, int length) {
+
+        int group = _groupCount++;
+        if (group == _groupKeys.length) {
+            int capacity = _groupKeys.length * 2;
+            _groupKeys = Arrays.copyOf(_groupKeys, capacity);
+            _groupTermHead = Arrays.copyOf(_groupTermHead, capacity);
+            _groupTermTail = Arrays.copyOf(_groupTermTail, capacity);
+            _columnOffsets = Arrays.copyOf(_columnOffsets, capacity + 1);
+        }
+        _groupKeys[group] = key;
+        _groupTermHead[group] = EMPTY;
+        _groupTermTail[group] = EMPTY;
+
+        if (_columnsSize + length > _columns.length) {
+            _columns = Arrays.copyOf(
+                    _columns,
+                    Math.max(_columns.length * 2, _columnsSize + length)
+            );
+        }
+        System.arraycopy(columns, 0, _columns, _columnsSize, length);
+        _columnsSize += length;
+        _columnOffsets[group + 1] = _columnsSize;
+
+        return group;
+    }
+
+    private void addTerm(int group, int termId) {
+
+        if (_termsSize == _termIds.length) {
+            _termIds = Arrays.copyOf(_termIds, _termIds.length * 2);
+            _termNext = Arrays.copyOf(_termNext, _termNext.length * 2);
+        }
+        int term = _termsSize++;
+        _termIds[term] = termId;
+        _termNext[term] = EMPTY;
+        if (_groupTermTail[group] == EMPTY) {
+            _groupTermHead[group] = term;
+        } else {
+            _termNext[_groupTermTail[group]] = term;
+        }
+        _groupTermTail[group] = term;
+    }
+
+    private boolean equalColumns(int group, int[] columns, int length) {
+
+        final int start = _columnOffsets[group];
+        if (_columnOffsets[group + 1] - start != length) {
+            return false;
+        }
+        for (int iCol = 0; iCol < length; iCol++) {
+            if (_columns[start + iCol] != columns[iCol]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void initTable(int capacity) {
+
+        _tableKeys = new long[capacity];
+        _tableGroups = new int[capacity];
+        Arrays.fill(_tableGroups, EMPTY);
+        _mask = capacity - 1;
+    }
+
+    private void rehash() {
+
+        this.initTable(_tableGroups.length * 2);
+        for (int group = 0; group < _groupCount; group++) {
+            long key = _groupKeys[group];
+            int slot = (int)(key ^ (key >>> 32)) & _mask;
+            while (_tableGroups[slot] != EMPTY) {
+                slot = (slot + 1) & _mask;
+            }
+            _tableKeys[slot] = key;
+            _tableGroups[slot] = group;
+        }
+    }
+
+    public int size() {
+
+        return _groupCount;
+    }
+
+    /**
+     * Write all groups as equivalence classes. The identifier of each
+     * equivalence class is the group index plus the given offset. Terms are
+     * written in ascending order without duplicates.
+     *
+     * @param idOffset
+     * @param out
+     */
+    public void write(int idOffset, PrintWriter out) {
+
+        int[] terms = new int[16];
+        StringBuilder line = new StringBuilder();
+        for (int group = 0; group < _groupCount; group++) {
+            int termCount = 0;
+            for (int term = _groupTermHead[group]; term != EMPTY; term = _termNext[term]) {
+                if (termCount == terms.length) {
+                    terms = Arrays.copyOf(terms, terms.length * 2);
+                }
+                terms[termCount++] = _termIds[term];
+            }
+            Arrays.sort(terms, 0, termCount);
+
+            line.setLength(0);
+            line.append(group + idOffset).append("\t");
+            for (int iTerm = 0; iTerm < termCount; iTerm++) {
+                // Skip duplicate term identifier
+                if ((iTerm > 0) && (terms[iTerm] == terms[iTerm - 1])) {
+                    continue;
+                }
+                if (iTerm > 0) {
+                    line.append(",");
+                }
+                line.append(terms[iTerm]);
+            }
+            line.append("\t");
+            for (int iCol = _columnOffsets[group]; iCol < _columnOffsets[group + 1]; iCol++) {
+                if (iCol > _columnOffsets[group]) {
+                    line.append(",");
+                }
+                line.append(_columns[iCol]);
+            }
+            out.println(line.toString());
+        }
+    }
+}
@@ -15,6 +15,9 @@
  */
 package org.urban.data.db.eq;
 
+import java.io.File;
+import java.io.PrintWriter;
+import org.urban.data.core.io.FileSystem;
 import org.urban.data.core.set.HashIDSet;
 import org.urban.data.core.set.IDSet;
 import org.urban.data.core.set.IdentifiableObjectSet;
@@ -76,4 +79,44 @@ public class EQHelper {
         }
         return overlap;
     }
+
+    /**
+     * Distribute the given list of identifier across a given number of files.
+     * The files will be created in the given output directory. All files are
+     * named by the prefix, followed by a '.' and the file number. The suffix
+     * for all files in '.txt'.
+     * 
+     * @param ids
+     * @param numberOfFiles
+     * @param namePrefix
+     * @param outputDir
+     * @throws java.io.IOException 
+     */
+    public static void splitIdentifier(
+            IDSet ids,
+            int numberOfFiles,
+            String namePrefix,
+            File outputDir
+    ) throws java.io.IOException {
+        
+        // Create the output folder if it does not exist
+        FileSystem.createFolder(outputDir);
+        
+        PrintWriter[] writers = new PrintWriter[numberOfFiles];
+        for (int iFile = 0; iFile < numberOfFiles; iFile++) {
+            String filename = namePrefix + "." + iFile + ".txt";
+            File file = FileSystem.joinPath(outputDir, filename);
+            writers[iFile] = FileSystem.openPrintWriter(file);
+        }
+        
+        int index = 0;
+        for (int id : ids) {
+            writers[index].println(id);
+            index = (index + 1) % writers.length;
+        }
+        
+        for (PrintWriter out : writers) {
+            out.close();
+        }
+    }
 }
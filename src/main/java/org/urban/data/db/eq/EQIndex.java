@@ -16,23 +16,25 @@
 package org.urban.data.db.eq;
 
 import java.io.File;
-import java.io.PrintWriter;
-import org.urban.data.core.io.FileSystem;
 import org.urban.data.core.prune.SizeFunction;
 import org.urban.data.core.set.HashObjectSet;
 import org.urban.data.core.set.IdentifiableObjectSet;
 import org.urban.data.core.util.count.IdentifiableCount;
 import org.urban.data.core.util.count.IdentifiableCounterSet;
-import org.urban.data.db.Database;
 import org.urban.data.db.column.Column;
+import org.urban.data.db.column.ColumnIndex;
 
 /**
  * Index of equivalence classes.
  * 
+ * The column index and node sizes are computed on first access and then
+ * reused. They are discarded whenever the index is modified.
+ * 
  * @author Heiko Mueller <heiko.mueller@nyu.edu>
  */
 public class EQIndex extends HashObjectSet<EQ> implements EQStream, SizeFunction {
 
+    private ColumnIndex _columnIndex = null;
     private int[] _nodeSizes = null;
     
     public EQIndex(File eqFile) throws java.io.IOException {
@@ -40,6 +42,13 @@ public class EQIndex extends HashObjectSet<EQ> implements EQStream, SizeFunction
         super(new EQReader(eqFile).read());
     }
     
+    @Override
+    public EQ add(EQ eq) {
+        
+        this.invalidate();
+        return super.add(eq);
+    }
+    
     public int[] columnSizes() {
         
         IdentifiableCounterSet columns = new IdentifiableCounterSet();
@@ -56,9 +65,33 @@ public class EQIndex extends HashObjectSet<EQ> implements EQStream, SizeFunction
         return values;
     }
     
+    /**
+     * Inverted index from columns to the nodes that occur in them. The index
+     * is built on first access and then reused.
+     * 
+     * @return 
+     */
+    public synchronized ColumnIndex columnIndex() {
+        
+        if (_columnIndex == null) {
+            _columnIndex = new ColumnIndex(this);
+        }
+        return _columnIndex;
+    }
+    
     public IdentifiableObjectSet<Column> columns() {
         
-        return new Database(this).columns();
+        return this.columnIndex().columns();
+    }
+    
+    /**
+     * Discard cached information that is derived from the set of
+     * equivalence classes.
+     */
+    private synchronized void invalidate() {
+        
+        _columnIndex = null;
+        _nodeSizes = null;
     }
 
     @Override
@@ -76,17 +109,32 @@ public class EQIndex extends HashObjectSet<EQ> implements EQStream, SizeFunction
         return nodes;
     }
     
-    public int[] nodeSizes() {
+    public synchronized int[] nodeSizes() {
         
         if (_nodeSizes == null) {
-            _nodeSizes = new int[this.getMaxId() + 1];
+            int[] nodeSizes = new int[this.getMaxId() + 1];
             for (EQ node : this) {
-                _nodeSizes[node.id()] = node.terms().length();
+                nodeSizes[node.id()] = node.terms().length();
             }
+            _nodeSizes = nodeSizes;
         }
         return _nodeSizes;
     }
     
+    @Override
+    public EQ put(EQ eq) {
+        
+        this.invalidate();
+        return super.put(eq);
+    }
+    
+    @Override
+    public EQ remove(int id) {
+        
+        this.invalidate();
+        return super.remove(id);
+    }
+    
     /**
      * Distribute the identifier of all columns in the database across a given
      * number of files. The files will be created in the given output directory.
@@ -104,25 +152,7 @@ public class EQIndex extends HashObjectSet<EQ> implements EQStream, SizeFunction
             File outputDir
     ) throws java.io.IOException {
         
-        // Create the output folder if it does not exist
-        FileSystem.createFolder(outputDir);
-        
-        PrintWriter[] writers = new PrintWriter[numberOfFiles];
-        for (int iFile = 0; iFile < numberOfFiles; iFile++) {
-            String filename = namePrefix + "." + iFile + ".txt";
-            File file = FileSystem.joinPath(outputDir, filename);
-            writers[iFile] = FileSystem.openPrintWriter(file);
-        }
-        
-        int index = 0;
-        for (int columnId : this.columns().keys()) {
-            writers[index].println(columnId);
-            index = (index + 1) % writers.length;
-        }
-        
-        for (PrintWriter out : writers) {
-            out.close();
-        }
+        EQHelper.splitIdentifier(this.columnIndex().columnIds(), numberOfFiles, namePrefix, outputDir);
     }
     
     /**
@@ -142,25 +172,7 @@ public class EQIndex extends HashObjectSet<EQ> implements EQStream, SizeFunction
             File outputDir
     ) throws java.io.IOException {
         
-        // Create the output folder if it does not exist
-        FileSystem.createFolder(outputDir);
-        
-        PrintWriter[] writers = new PrintWriter[numberOfFiles];
-        for (int iFile = 0; iFile < numberOfFiles; iFile++) {
-            String filename = namePrefix + "." + iFile + ".txt";
-            File file = FileSystem.joinPath(outputDir, filename);
-            writers[iFile] = FileSystem.openPrintWriter(file);
-        }
-        
-        int index = 0;
-        for (int nodeId : this.keys()) {
-            writers[index].println(nodeId);
-            index = (index + 1) % writers.length;
-        }
-        
-        for (PrintWriter out : writers) {
-            out.close();
-        }
+        EQHelper.splitIdentifier(this.keys(), numberOfFiles, namePrefix, outputDir);
     }
 
     @Override
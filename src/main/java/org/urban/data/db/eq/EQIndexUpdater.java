@@ -0,0 +1,349 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.eq;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.core.set.HashIDSet;
+import org.urban.data.core.set.IDSet;
+import org.urban.data.db.term.Term;
+import org.urban.data.db.term.TermConsumer;
+import org.urban.data.db.term.TermIndexReader;
+
+/**
+ * Incrementally maintain a set of equivalence classes for an updated term
+ * index. Expects that term identifier in the updated index are stable, i.e.,
+ * the same term has the same identifier in the old and the new index (see
+ * TermIndexGenerator.updateIndex).
+ *
+ * The updater is a term consumer for the updated term index. A term whose
+ * column set differs from the column set of its current equivalence class is
+ * moved to the equivalence class for its new column set, which is created if
+ * it does not exist. New terms are added in the same way. Terms of the old
+ * index that are not in the updated index are removed. Equivalence classes
+ * that become empty are deleted. All other equivalence classes keep their
+ * identifier. New equivalence classes get identifier after the maximum
+ * identifier of the existing classes.
+ *
+ * The updater keeps track of the columns whose set of terms has changed.
+ * Column similarities only need to be recomputed for these columns.
+ *
+ * The existing equivalence classes are streamed from file. The mapping of
+ * term identifier to equivalence class identifier and the equivalence
+ * classes themselves are kept in arrays that are indexed by the respective
+ * identifier.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class EQIndexUpdater implements TermConsumer {
+
+    /**
+     * Identifier for terms that are not assigned to an equivalence class.
+     */
+    private static final int NO_EQ = -1;
+
+    private final HashIDSet _changedColumns = new HashIDSet();
+    private int _createdCount = 0;
+    private MutableEQ[] _eqs = new MutableEQ[1024];
+    private int _maxId = 0;
+    private int _movedCount = 0;
+    private final BitSet _seenTerms = new BitSet();
+    private final HashMap<Long, List<MutableEQ>> _signatures = new HashMap<>();
+    private int[] _termIndex = new int[1024];
+
+    public EQIndexUpdater(Iterable<EQ> eqs) {
+
+        Arrays.fill(_termIndex, NO_EQ);
+        for (EQ eq : eqs) {
+            this.load(eq);
+        }
+    }
+
+    public EQIndexUpdater(EQStream eqs) {
+
+        Arrays.fill(_termIndex, NO_EQ);
+        eqs.stream(new EQConsumer() {
+            @Override
+            public void close() {
+            }
+            @Override
+            public void consume(EQ node) {
+                load(node);
+            }
+            @Override
+            public void open() {
+            }
+        });
+    }
+
+    public EQIndexUpdater(File eqFile) throws java.io.IOException {
+
+        this(new EQReader(eqFile));
+    }
+
+    private void add(MutableEQ eq) {
+
+        if (eq.id() >= _eqs.length) {
+            _eqs = Arrays.copyOf(_eqs, Math.max(eq.id() + 1, _eqs.length * 2));
+        }
+        _eqs[eq.id()] = eq;
+        _maxId = Math.max(_maxId, eq.id());
+    }
+
+    /**
+     * Set of columns that were affected by the update.
+     *
+     * @return
+     */
+    public IDSet changedColumns() {
+
+        return _changedColumns;
+    }
+
+    @Override
+    public void close() {
+
+        // Remove all terms that are no longer in the term index.
+        int removedCount = 0;
+        for (int termId = 0; termId < _termIndex.length; termId++) {
+            if ((_termIndex[termId] != NO_EQ) && (!_seenTerms.get(termId))) {
+                MutableEQ eq = _eqs[_termIndex[termId]];
+                _termIndex[termId] = NO_EQ;
+                _changedColumns.add(eq.columns());
+                this.remove(eq, termId);
+                removedCount++;
+            }
+        }
+
+        System.out.println(
+                "MOVED " + _movedCount + " TERMS, REMOVED " + removedCount +
+                " TERMS, CREATED " + _createdCount + " EQUIVALENCE CLASSES"
+        );
+        System.out.println("CHANGED COLUMNS " + _changedColumns.length());
+    }
+
+    @Override
+    public void consume(Term term) {
+
+        final int termId = term.id();
+        _seenTerms.set(termId);
+
+        int[] columns = term.columns().toArray();
+        Arrays.sort(columns);
+
+        MutableEQ current = null;
+        if ((termId < _termIndex.length) && (_termIndex[termId] != NO_EQ)) {
+            current = _eqs[_termIndex[termId]];
+        }
+        if (current != null) {
+            if (current.columns().length() == columns.length) {
+                boolean isEqual = true;
+                for (int columnId : columns) {
+                    if (!current.columns().contains(columnId)) {
+                        isEqual = false;
+                        break;
+                    }
+                }
+                if (isEqual) {
+                    return;
+                }
+            }
+            // The term moves to a different set of columns. Only columns
+            // that either lost or gained the term are affected.
+            for (int columnId : current.columns()) {
+                if (Arrays.binarySearch(columns, columnId) < 0) {
+                    _changedColumns.add(columnId);
+                }
+            }
+            for (int columnId : columns) {
+                if (!current.columns().contains(columnId)) {
+                    _changedColumns.add(columnId);
+                }
+            }
+            this.remove(current, termId);
+            _movedCount++;
+        } else {
+            for (int columnId : columns) {
+                _changedColumns.add(columnId);
+            }
+        }
+
+        MutableEQ target = null;
+        List<MutableEQ> candidates = this.signatures(columns);
+        for (MutableEQ eq : candidates) {
+            if (this.hasColumns(eq, columns)) {
+                target = eq;
+                break;
+            }
+        }
+        if (target == null) {
+            target = new MutableEQ(++_maxId, term);
+            candidates.add(target);
+            this.add(target);
+            _createdCount++;
+        } else {
+            target.terms().add(termId);
+        }
+        this.setEQ(termId, target.id());
+    }
+
+    private boolean hasColumns(MutableEQ eq, int[] columns) {
+
+        if (eq.columns().length() != columns.length) {
+            return false;
+        }
+        for (int columnId : columns) {
+            if (!eq.columns().contains(columnId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add an equivalence class from the existing index.
+     *
+     * @param eq
+     */
+    private void load(EQ eq) {
+
+        MutableEQ node = new MutableEQ(eq.id(), eq.columns(), eq.terms());
+        this.add(node);
+        for (int termId : node.terms()) {
+            this.setEQ(termId, node.id());
+        }
+        this.signatures(node.columns()).add(node);
+    }
+
+    @Override
+    public void open() {
+
+    }
+
+    private void remove(MutableEQ eq, int termId) {
+
+        eq.remove(termId);
+        if (eq.terms().isEmpty()) {
+            _eqs[eq.id()] = null;
+            int[] columns = eq.columns().toArray();
+            Arrays.sort(columns);
+            List<MutableEQ> candidates = this.signatures(columns);
+            candidates.remove(eq);
+            if (candidates.isEmpty()) {
+                _signatures.remove(ColumnSetHash.hash(columns));
+            }
+        }
+    }
+
+    private void setEQ(int termId, int eqId) {
+
+        if (termId >= _termIndex.length) {
+            int length = _termIndex.length;
+            _termIndex = Arrays.copyOf(_termIndex, Math.max(termId + 1, length * 2));
+            Arrays.fill(_termIndex, length, _termIndex.length, NO_EQ);
+        }
+        _termIndex[termId] = eqId;
+    }
+
+    private List<MutableEQ> signatures(IDSet columns) {
+
+        int[] values = columns.toArray();
+        Arrays.sort(values);
+        return this.signatures(values);
+    }
+
+    private List<MutableEQ> signatures(int[] columns) {
+
+        long key = ColumnSetHash.hash(columns);
+        List<MutableEQ> candidates = _signatures.get(key);
+        if (candidates == null) {
+            candidates = new ArrayList<>(1);
+            _signatures.put(key, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Write the updated equivalence classes in order of their identifier.
+     *
+     * @param out
+     */
+    public void write(PrintWriter out) {
+
+        for (int id = 0; id <= _maxId; id++) {
+            if (_eqs[id] != null) {
+                _eqs[id].write(out);
+            }
+        }
+    }
+
+    /**
+     * Write the sorted list of changed column identifier, one per line.
+     *
+     * @param out
+     */
+    public void writeChangedColumns(PrintWriter out) {
+
+        for (int columnId : _changedColumns.toSortedList()) {
+            out.println(columnId);
+        }
+    }
+
+    private static final String COMMAND =
+            "Usage:\n" +
+            "  <eq-file>\n" +
+            "  <updated-term-index-file>\n" +
+            "  <output-eq-file>\n" +
+            "  <changed-columns-file>";
+
+    private static final Logger LOGGER = Logger
+            .getLogger(EQIndexUpdater.class.getName());
+
+    public static void main(String[] args) {
+
+        if (args.length != 4) {
+            System.out.println(COMMAND);
+            System.exit(-1);
+        }
+
+        File eqFile = new File(args[0]);
+        File termIndexFile = new File(args[1]);
+        File outputFile = new File(args[2]);
+        File changelogFile = new File(args[3]);
+
+        try {
+            EQIndexUpdater updater = new EQIndexUpdater(eqFile);
+            new TermIndexReader(termIndexFile).read(updater);
+            try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
+                updater.write(out);
+            }
+            try (PrintWriter out = FileSystem.openPrintWriter(changelogFile)) {
+                updater.writeChangedColumns(out);
+            }
+        } catch (java.io.IOException ex) {
+            LOGGER.log(Level.SEVERE, outputFile.getName(), ex);
+            System.exit(-1);
+        }
+    }
+}
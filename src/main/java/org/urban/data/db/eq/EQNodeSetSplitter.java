@@ -37,7 +37,7 @@ public class EQNodeSetSplitter {
         File outputDir = new File(args[2]);
         
         try {
-            new EQIndex(eqFile)
+            new CompactEQIndex(eqFile)
                     .splitNodes(numberOfFiles, "nodes", outputDir);
         } catch (java.io.IOException ex) {
             LOGGER.log(Level.SEVERE, "RUN", ex);
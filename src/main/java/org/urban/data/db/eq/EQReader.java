@@ -22,7 +22,8 @@ import org.urban.data.core.set.HashObjectSet;
 import org.urban.data.core.set.IdentifiableObjectSet;
 
 /**
- * Read a set of equivalence classes.
+ * Read a set of equivalence classes. Uncompressed files are read using the
+ * memory-mapped reader.
  * 
  * @author Heiko Mueller <heiko.mueller@nyu.edu>
  */
@@ -37,6 +38,10 @@ public class EQReader implements EQStream {
     
     public IdentifiableObjectSet<EQ> read() throws java.io.IOException {
         
+        if (MappedEQReader.canMap(_file)) {
+            return new MappedEQReader(_file).read();
+        }
+        
         HashObjectSet<EQ> result = new HashObjectSet<>();
         
         try (BufferedReader in = FileSystem.openReader(_file)) {
@@ -55,6 +60,11 @@ public class EQReader implements EQStream {
     @Override
     public void stream(EQConsumer consumer) {
 
+        if (MappedEQReader.canMap(_file)) {
+            new MappedEQReader(_file).stream(consumer);
+            return;
+        }
+        
         consumer.open();
         
         try (BufferedReader in = FileSystem.openReader(_file)) {
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.eq;
+
+import java.io.File;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.urban.data.core.set.HashIDSet;
+import org.urban.data.core.set.HashObjectSet;
+import org.urban.data.core.set.IdentifiableObjectSet;
+
+/**
+ * Reader for equivalence class files that maps the file into memory. Term
+ * and column identifier are parsed directly from the mapped bytes into
+ * primitive arrays without creating intermediate strings.
+ * 
+ * Files that are larger than the segment size are mapped in consecutive
+ * segments. Each segment is truncated at the last line break.
+ * 
+ * Compressed files cannot be mapped. Use EQReader to read any equivalence
+ * class file; it uses this reader for uncompressed files.
+ * 
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class MappedEQReader implements EQStream {
+    
+    public static final int SEGMENT_SIZE = 1 << 30;
+    
+    private MappedByteBuffer _buf = null;
+    private int[] _columns = new int[64];
+    private int _columnCount = 0;
+    private int _end = 0;
+    private final File _file;
+    private int _pos = 0;
+    private int[] _terms = new int[64];
+    private int _termCount = 0;
+    
+    public MappedEQReader(File file) {
+        
+        _file = file;
+    }
+    
+    /**
+     * Test if the given file can be read by the memory-mapped reader.
+     * 
+     * @param file
+     * @return 
+     */
+    public static boolean canMap(File file) {
+        
+        return !file.getName().endsWith(".gz");
+    }
+    
+    private static EQ createEQ(
+            int id,
+            int[] terms,
+            int termCount,
+            int[] columns,
+            int columnCount
+    ) {
+        
+        return new EQImpl(
+                id,
+                new HashIDSet(Arrays.copyOf(terms, termCount)),
+                new HashIDSet(Arrays.copyOf(columns, columnCount))
+        );
+    }
+    
+    private boolean isWhitespace(byte b) {
+        
+        return (b == ' ') || (b == '\t') || (b == '\n') || (b == '\r');
+    }
+    
+    private IllegalStateException parseError(String message) {
+        
+        return new IllegalStateException(
+                "Invalid equivalence class file " + _file.getName() + ": " + message
+        );
+    }
+    
+    /**
+     * Parse a comma-separated list of identifier. Identifier may be followed
+     * by ':' and a count. The count is ignored. The values are stored in the
+     * given buffer. Returns the buffer or a larger copy if the given buffer
+     * was too small. The number of parsed values is stored as term count or
+     * column count.
+     */
+    private int[] parseList(int[] values, boolean isColumnList) {
+        
+        int count = 0;
+        while (_pos < _end) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = this.parseInt();
+            if ((_pos < _end) && (_buf.get(_pos) == ':')) {
+                _pos++;
+                this.parseInt();
+            }
+            if ((_pos < _end) && (_buf.get(_pos) == ',')) {
+                _pos++;
+            } else {
+                break;
+            }
+        }
+        if (isColumnList) {
+            _columnCount = count;
+        } else {
+            _termCount = count;
+        }
+        return values;
+    }
+    
+    private int parseInt() {
+        
+        int value = 0;
+        int start = _pos;
+        while (_pos < _end) {
+            byte b = _buf.get(_pos);
+            if ((b < '0') || (b > '9')) {
+                break;
+            }
+            value = (value * 10) + (b - '0');
+            _pos++;
+        }
+        if (start == _pos) {
+            throw this.parseError("expected number at position " + _pos);
+        }
+        return value;
+    }
+    
+    private void parseSegment(EQArrayConsumer consumer) {
+        
+        while (_pos < _end) {
+            if (this.isWhitespace(_buf.get(_pos))) {
+                _pos++;
+                continue;
+            }
+            int id = this.parseInt();
+            this.skipTab();
+            _terms = this.parseList(_terms, false);
+            this.skipTab();
+            _columns = this.parseList(_columns, true);
+            // Skip trailing characters until the end of the line
+            while ((_pos < _end) && (_buf.get(_pos) != '\n')) {
+                if (!this.isWhitespace(_buf.get(_pos))) {
+                    throw this.parseError("unexpected character at position " + _pos);
+                }
+                _pos++;
+            }
+            consumer.consume(id, _terms, _termCount, _columns, _columnCount);
+        }
+    }
+    
+    /**
+     * Read all equivalence classes in the file into memory.
+     * 
+     * @return
+     * @throws java.io.IOException 
+     */
+    public IdentifiableObjectSet<EQ> read() throws java.io.IOException {
+        
+        HashObjectSet<EQ> result = new HashObjectSet<>();
+        
+        this.read(new EQArrayConsumer() {
+            @Override
+            public void consume(
+                    int id,
+                    int[] terms,
+                    int termCount,
+                    int[] columns,
+                    int columnCount
+            ) {
+                result.add(createEQ(id, terms, termCount, columns, columnCount));
+            }
+        });
+        
+        return result;
+    }
+    
+    /**
+     * Pass all equivalence classes in the file to the given consumer.
+     * 
+     * @param consumer
+     * @throws java.io.IOException 
+     */
+    public void read(EQArrayConsumer consumer) throws java.io.IOException {
+        
+        try (FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(size - position, SEGMENT_SIZE);
+                _buf = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                _end = (int)length;
+                if (position + length < size) {
+                    // Only parse complete lines. The remainder of the segment
+                    // is parsed as part of the next segment.
+                    while ((_end > 0) && (_buf.get(_end - 1) != '\n')) {
+                        _end--;
+                    }
+                    if (_end == 0) {
+                        throw new java.io.IOException("Line exceeds segment size in " + _file.getName());
+                    }
+                }
+                _pos = 0;
+                this.parseSegment(consumer);
+                position += _end;
+            }
+        } finally {
+            _buf = null;
+        }
+    }
+    
+    private void skipTab() {
+        
+        if ((_pos >= _end) || (_buf.get(_pos) != '\t')) {
+            throw this.parseError("expected tab at position " + _pos);
+        }
+        _pos++;
+    }
+
+    @Override
+    public void stream(EQConsumer consumer) {
+
+        consumer.open();
+        
+        try {
+            this.read(new EQArrayConsumer() {
+                @Override
+                public void consume(
+                        int id,
+                        int[] terms,
+                        int termCount,
+                        int[] columns,
+                        int columnCount
+                ) {
+                    consumer.consume(
+                            createEQ(id, terms, termCount, columns, columnCount)
+                    );
+                }
+            });
+        } catch (java.io.IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        
+        consumer.close();
+    }
+}
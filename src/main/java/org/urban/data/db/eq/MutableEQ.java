@@ -73,6 +73,17 @@ public class MutableEQ extends IdentifiableObjectImpl implements EQ {
         return Integer.compare(this.id(), el.id());
     }
     
+    /**
+     * Remove the term with the given identifier. The column set of the
+     * equivalence class remains unchanged.
+     * 
+     * @param termId 
+     */
+    public void remove(int termId) {
+        
+        _terms.remove(termId);
+    }
+    
     @Override
     public HashIDSet terms() {
         
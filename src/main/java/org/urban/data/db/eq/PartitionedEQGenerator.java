@@ -0,0 +1,298 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.eq;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.db.term.Term;
+import org.urban.data.db.term.TermConsumer;
+import org.urban.data.db.term.TermIndexFormat;
+
+/**
+ * Compress a term index into a set of equivalence classes without keeping
+ * all equivalence classes in memory.
+ *
+ * Terms are hash-partitioned by the fingerprint of their column set into a
+ * fixed number of spill files while the term index is streamed. Terms with
+ * the same column set always end up in the same partition. When the stream
+ * is closed, each partition is grouped independently and partitions are
+ * processed in parallel. Each partition writes its equivalence classes with
+ * local identifier. Globally unique identifier are assigned afterwards when
+ * the partition outputs are concatenated.
+ *
+ * Spill files store for each term (1) the term identifier, (2) the number of
+ * columns, and (3) the sorted list of column identifier as differences to
+ * the predecessor, all as variable-length integers. Spill files have no
+ * header and use their own suffix so that they are not mistaken for binary
+ * term index files. The temporary directory is removed if the grouping
+ * fails.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class PartitionedEQGenerator implements TermConsumer {
+
+    /**
+     * Suffix for spill files.
+     */
+    public static final String SPILL_SUFFIX = ".spill";
+
+    /**
+     * Group the terms in a single partition. Writes the equivalence classes
+     * for the partition with local identifier starting at zero. Returns the
+     * number of equivalence classes.
+     */
+    private static class PartitionTask implements Callable<Integer> {
+
+        private final File _inputFile;
+        private final File _outputFile;
+
+        public PartitionTask(File inputFile, File outputFile) {
+
+            _inputFile = inputFile;
+            _outputFile = outputFile;
+        }
+
+        @Override
+        public Integer call() throws java.io.IOException {
+
+            EQGroupIndex groups = new EQGroupIndex();
+            int[] columns = new int[16];
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(_inputFile))) {
+                int termId;
+                while ((termId = TermIndexFormat.readVarInt(in)) != -1) {
+                    int columnCount = TermIndexFormat.readVarInt(in);
+                    if (columnCount > columns.length) {
+                        columns = new int[Math.max(columnCount, columns.length * 2)];
+                    }
+                    int columnId = 0;
+                    for (int iCol = 0; iCol < columnCount; iCol++) {
+                        columnId += TermIndexFormat.readVarInt(in);
+                        columns[iCol] = columnId;
+                    }
+                    groups.add(columns, columnCount, termId);
+                }
+            }
+
+            try (PrintWriter out = FileSystem.openPrintWriter(_outputFile)) {
+                groups.write(0, out);
+            }
+            Files.delete(_inputFile.toPath());
+
+            return groups.size();
+        }
+    }
+
+    private File _directory = null;
+    private final PrintWriter _out;
+    private final int _partitions;
+    private DataOutputStream[] _spills = null;
+    private final int _threads;
+    private final File _workingDir;
+
+    public PartitionedEQGenerator(
+            PrintWriter out,
+            int partitions,
+            int threads,
+            File workingDir
+    ) {
+
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Invalid number of partitions " + partitions);
+        }
+
+        _out = out;
+        _partitions = partitions;
+        _threads = threads;
+        _workingDir = workingDir;
+    }
+
+    @Override
+    public void close() {
+
+        ExecutorService executor = null;
+        boolean success = false;
+        try {
+            this.closeSpills();
+
+            // Group all partitions in parallel
+            executor = Executors.newFixedThreadPool(_threads);
+            List<Future<Integer>> tasks = new ArrayList<>();
+            for (int iPart = 0; iPart < _partitions; iPart++) {
+                tasks.add(
+                        executor.submit(
+                                new PartitionTask(
+                                        this.spillFile(iPart),
+                                        this.partitionFile(iPart)
+                                )
+                        )
+                );
+            }
+            executor.shutdown();
+
+            // Assign global identifier starting at one (as in
+            // CompressedTermIndexGenerator).
+            int offset = 1;
+            for (int iPart = 0; iPart < _partitions; iPart++) {
+                int count = tasks.get(iPart).get();
+                File file = this.partitionFile(iPart);
+                try (BufferedReader in = FileSystem.openReader(file)) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        int pos = line.indexOf('\t');
+                        int id = Integer.parseInt(line.substring(0, pos)) + offset;
+                        _out.println(id + line.substring(pos));
+                    }
+                }
+                Files.delete(file.toPath());
+                offset += count;
+            }
+            Files.delete(_directory.toPath());
+
+            System.out.println("NUMBER OF EQUIVALENCE CLASSES IS " + (offset - 1));
+            success = true;
+        } catch (java.io.IOException | java.lang.InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (java.util.concurrent.ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            if (!success) {
+                if (executor != null) {
+                    // Stop running partition tasks before removing their files.
+                    executor.shutdownNow();
+                    try {
+                        executor.awaitTermination(1, TimeUnit.MINUTES);
+                    } catch (java.lang.InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                this.deleteDirectory();
+            }
+        }
+    }
+
+    /**
+     * Close all open spill files.
+     */
+    private void closeSpills() throws java.io.IOException {
+
+        if (_spills != null) {
+            DataOutputStream[] spills = _spills;
+            _spills = null;
+            for (DataOutputStream spill : spills) {
+                if (spill != null) {
+                    spill.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void consume(Term term) {
+
+        int[] columns = term.columns().toArray();
+        Arrays.sort(columns);
+
+        int partition = (int)Long.remainderUnsigned(
+                ColumnSetHash.hash(columns),
+                _partitions
+        );
+
+        try {
+            DataOutputStream out = _spills[partition];
+            TermIndexFormat.writeVarInt(out, term.id());
+            TermIndexFormat.writeVarInt(out, columns.length);
+            int lastColumnId = 0;
+            for (int columnId : columns) {
+                TermIndexFormat.writeVarInt(out, columnId - lastColumnId);
+                lastColumnId = columnId;
+            }
+        } catch (java.io.IOException ex) {
+            this.deleteDirectory();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Remove the temporary directory and all remaining files after a failure.
+     * Errors are ignored to not hide the original failure.
+     */
+    private void deleteDirectory() {
+
+        try {
+            this.closeSpills();
+        } catch (java.io.IOException ex) {
+        }
+        if (_directory != null) {
+            File[] files = _directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            _directory.delete();
+            _directory = null;
+        }
+    }
+
+    @Override
+    public void open() {
+
+        try {
+            _directory = Files
+                    .createTempDirectory(_workingDir.toPath(), "eq")
+                    .toFile();
+            _spills = new DataOutputStream[_partitions];
+            for (int iPart = 0; iPart < _partitions; iPart++) {
+                _spills[iPart] = new DataOutputStream(
+                        new BufferedOutputStream(
+                                new FileOutputStream(this.spillFile(iPart))
+                        )
+                );
+            }
+        } catch (java.io.IOException ex) {
+            this.deleteDirectory();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private File partitionFile(int partition) {
+
+        return new File(_directory, "eq." + partition + ".txt");
+    }
+
+    private File spillFile(int partition) {
+
+        return new File(_directory, "terms." + partition + SPILL_SUFFIX);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.term;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.core.set.HashIDSet;
+
+/**
+ * Read a term index file in binary format. The reader can either be used to
+ * iterate over the terms in the file or to pass all terms to a term consumer.
+ * 
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class BinaryTermIndexReader implements AutoCloseable {
+    
+    private byte[] _buffer = new byte[256];
+    private int[] _columns = null;
+    private final DataInputStream _in;
+    private String _term = null;
+    private int _termId = -1;
+    
+    public BinaryTermIndexReader(InputStream is) throws java.io.IOException {
+        
+        _in = new DataInputStream(new BufferedInputStream(is));
+        TermIndexFormat.readHeader(_in);
+    }
+    
+    public BinaryTermIndexReader(File file) throws java.io.IOException {
+        
+        this(FileSystem.openFile(file));
+    }
+    
+    @Override
+    public void close() throws java.io.IOException {
+        
+        _in.close();
+    }
+    
+    /**
+     * Sorted list of column identifier for the current term.
+     * 
+     * @return 
+     */
+    public int[] columns() {
+        
+        return _columns;
+    }
+    
+    /**
+     * Pass all remaining terms in the file to the given consumer.
+     * 
+     * @param consumer
+     * @throws java.io.IOException 
+     */
+    public void read(TermConsumer consumer) throws java.io.IOException {
+        
+        consumer.open();
+        
+        while (this.readNext()) {
+            consumer.consume(new Term(_termId, _term, new HashIDSet(_columns)));
+        }
+        
+        consumer.close();
+    }
+    
+    /**
+     * Read the next term in the file. Returns false if the end of the file
+     * has been reached.
+     * 
+     * @return
+     * @throws java.io.IOException 
+     */
+    public boolean readNext() throws java.io.IOException {
+        
+        int length = TermIndexFormat.readVarInt(_in);
+        if (length < 0) {
+            _term = null;
+            _columns = null;
+            return false;
+        }
+        if (length > _buffer.length) {
+            _buffer = new byte[Math.max(length, _buffer.length * 2)];
+        }
+        _in.readFully(_buffer, 0, length);
+        _term = new String(_buffer, 0, length, StandardCharsets.UTF_8);
+        _termId = this.readInt();
+        _columns = new int[this.readInt()];
+        int columnId = 0;
+        for (int iColumn = 0; iColumn < _columns.length; iColumn++) {
+            columnId += this.readInt();
+            _columns[iColumn] = columnId;
+        }
+        return true;
+    }
+    
+    private int readInt() throws java.io.IOException {
+        
+        int value = TermIndexFormat.readVarInt(_in);
+        if (value < 0) {
+            throw new java.io.EOFException("Unexpected end of term index file");
+        }
+        return value;
+    }
+    
+    public String term() {
+        
+        return _term;
+    }
+    
+    public int termId() {
+        
+        return _termId;
+    }
+}
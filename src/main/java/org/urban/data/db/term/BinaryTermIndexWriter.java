@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.term;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.urban.data.core.io.FileSystem;
+
+/**
+ * Write stream of terms to a term index file in binary format. See
+ * TermIndexFormat for a description of the format.
+ * 
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class BinaryTermIndexWriter implements TermConsumer {
+    
+    private final File _file;
+    private DataOutputStream _out = null;
+
+    public BinaryTermIndexWriter(File file) {
+        
+        _file = file;
+    }
+    
+    @Override
+    public void close() {
+
+        try {
+            _out.close();
+        } catch (java.io.IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        _out = null;
+    }
+
+    @Override
+    public void consume(Term term) {
+
+        int[] columns = term.columns().toArray();
+        Arrays.sort(columns);
+        try {
+            this.write(term.id(), term.name(), columns);
+        } catch (java.io.IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void open() {
+
+        try {
+            _out = new DataOutputStream(
+                    new BufferedOutputStream(FileSystem.openOutputFile(_file))
+            );
+            TermIndexFormat.writeHeader(_out);
+        } catch (java.io.IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    /**
+     * Write a single term. Expects the list of column identifier to be
+     * sorted in ascending order.
+     * 
+     * @param termId
+     * @param term
+     * @param columns
+     * @throws java.io.IOException 
+     */
+    public void write(int termId, String term, int[] columns) throws java.io.IOException {
+        
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        TermIndexFormat.writeVarInt(_out, bytes.length);
+        _out.write(bytes);
+        TermIndexFormat.writeVarInt(_out, termId);
+        TermIndexFormat.writeVarInt(_out, columns.length);
+        int prev = 0;
+        for (int columnId : columns) {
+            TermIndexFormat.writeVarInt(_out, columnId - prev);
+            prev = columnId;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.term;
+
+/**
+ * Spill condition that is based on the estimated number of bytes that are
+ * occupied by the term buffer. Optionally, the condition is also satisfied if
+ * the fraction of used heap memory exceeds a given watermark. To avoid
+ * writing many tiny runs while the garbage collector catches up, the heap
+ * watermark is only considered for buffers that exceed a minimal size.
+ * 
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class MemorySpillCondition implements SpillCondition {
+    
+    /**
+     * Minimal estimated buffer size (in bytes) for the heap watermark to
+     * trigger a spill.
+     */
+    public static final long MIN_HEAP_SPILL_SIZE = 16 * 1024 * 1024;
+    
+    private final double _heapWatermark;
+    private final long _maxBytes;
+    
+    /**
+     * Initialize the maximum buffer size in bytes and the heap watermark. The
+     * watermark is a fraction of the maximum heap size. Use a value less or
+     * equal to zero to ignore the heap usage.
+     * 
+     * @param maxBytes
+     * @param heapWatermark 
+     */
+    public MemorySpillCondition(long maxBytes, double heapWatermark) {
+        
+        _maxBytes = maxBytes;
+        _heapWatermark = heapWatermark;
+    }
+    
+    public MemorySpillCondition(long maxBytes) {
+        
+        this(maxBytes, -1);
+    }
+
+    @Override
+    public boolean isSatisfied(TermIndexBuffer buffer) {
+
+        if (buffer.estimatedSize() > _maxBytes) {
+            return true;
+        } else if ((_heapWatermark > 0) && (buffer.estimatedSize() >= MIN_HEAP_SPILL_SIZE)) {
+            Runtime runtime = Runtime.getRuntime();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            return (used > (long)(runtime.maxMemory() * _heapWatermark));
+        }
+        return false;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.term;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Term consumer that passes each term to a list of consumers in the given
+ * order. Allows to process a single term stream by multiple consumers, e.g.,
+ * write the term index and generate equivalence classes at the same time.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class TeeTermConsumer implements TermConsumer {
+
+    private final List<TermConsumer> _consumers;
+
+    public TeeTermConsumer(List<TermConsumer> consumers) {
+
+        _consumers = new ArrayList<>(consumers);
+    }
+
+    public TeeTermConsumer(TermConsumer... consumers) {
+
+        this(Arrays.asList(consumers));
+    }
+
+    @Override
+    public void close() {
+
+        for (TermConsumer consumer : _consumers) {
+            consumer.close();
+        }
+    }
+
+    @Override
+    public void consume(Term term) {
+
+        for (TermConsumer consumer : _consumers) {
+            consumer.consume(term);
+        }
+    }
+
+    @Override
+    public void open() {
+
+        for (TermConsumer consumer : _consumers) {
+            consumer.open();
+        }
+    }
+}
@@ -20,7 +20,7 @@ import org.urban.data.core.object.Entity;
 import org.urban.data.core.set.IDSet;
 import org.urban.data.core.set.ImmutableIDSet;
 import org.urban.data.core.profiling.datatype.label.DataType;
-import org.urban.data.core.profiling.datatype.DefaultDataTypeAnnotator;
+import org.urban.data.db.column.DataTypeCache;
 import org.urban.data.db.eq.EQ;
 
 /**
@@ -53,13 +53,14 @@ public class Term extends Entity implements EQ {
     }
 
     /**
-     * The data type of the term value.
+     * The data type of the term value. Types are looked up in the default
+     * data type cache.
      * 
      * @return 
      */
     public DataType type() {
         
-        return new DefaultDataTypeAnnotator().getType(this.name());
+        return DataTypeCache.getDefault().getType(this.name());
     }
 
     @Override
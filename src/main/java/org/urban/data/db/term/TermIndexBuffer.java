@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.term;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.urban.data.core.set.HashIDSet;
+
+/**
+ * In-memory buffer of terms and the columns they occur in. The buffer keeps an
+ * estimate of the number of bytes that are occupied by its content. The
+ * estimate is used to decide when the buffer has to be written to disk.
+ * 
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class TermIndexBuffer {
+    
+    /**
+     * Estimated number of bytes for each column identifier in a term's column
+     * set (hash map entry, boxed integer and table slot).
+     */
+    public static final int COLUMN_ENTRY_SIZE = 56;
+    /**
+     * Estimated number of bytes for each term entry without the characters in
+     * the term (hash map entry, string object, character array header and
+     * the column set object).
+     */
+    public static final int TERM_ENTRY_SIZE = 200;
+    
+    private long _estimatedSize = 0;
+    private final HashMap<String, HashIDSet> _terms = new HashMap<>();
+    
+    /**
+     * Add occurrence of a term in the given column.
+     * 
+     * @param term
+     * @param columnId 
+     */
+    public void add(String term, int columnId) {
+        
+        HashIDSet columns = _terms.get(term);
+        if (columns == null) {
+            _terms.put(term, new HashIDSet(columnId));
+            _estimatedSize += TERM_ENTRY_SIZE + (2 * term.length());
+        } else {
+            columns.add(columnId);
+        }
+        _estimatedSize += COLUMN_ENTRY_SIZE;
+    }
+    
+    public HashIDSet columns(String term) {
+        
+        return _terms.get(term);
+    }
+    
+    /**
+     * Estimated number of bytes that are occupied by the buffer content.
+     * 
+     * @return 
+     */
+    public long estimatedSize() {
+        
+        return _estimatedSize;
+    }
+    
+    public boolean isEmpty() {
+        
+        return _terms.isEmpty();
+    }
+    
+    /**
+     * Number of distinct terms in the buffer.
+     * 
+     * @return 
+     */
+    public int size() {
+        
+        return _terms.size();
+    }
+    
+    /**
+     * List of terms in the buffer in lexicographic order.
+     * 
+     * @return 
+     */
+    public List<String> sortedTerms() {
+        
+        ArrayList<String> terms = new ArrayList<>(_terms.keySet());
+        Collections.sort(terms);
+        return terms;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.term;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.urban.data.core.io.FileSystem;
+
+/**
+ * Helper methods for term index files. A term index is either stored as a
+ * tab-delimited text file or in a compact binary format.
+ * 
+ * The binary format starts with a four byte magic number followed by a
+ * version byte. Each term is then stored as (1) the length of the UTF-8
+ * encoded term, (2) the term bytes, (3) the term identifier, (4) the number
+ * of columns, and (5) the sorted list of column identifier where each
+ * identifier is stored as the difference to its predecessor. All numbers are
+ * encoded as variable-length integers (7 bits per byte).
+ * 
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public final class TermIndexFormat {
+    
+    /**
+     * Suffix for binary term index files. Output files with this suffix
+     * (optionally followed by .gz) are written in the binary format.
+     */
+    public static final String BINARY_SUFFIX = ".bin";
+    
+    public static final byte[] MAGIC = new byte[]{'U', 'D', 'T', 'I'};
+    public static final int VERSION = 1;
+    
+    /**
+     * Get a writer for the given output file. The format of the output file
+     * is determined by the file suffix.
+     * 
+     * @param file
+     * @return 
+     */
+    public static TermConsumer getWriter(File file) {
+        
+        if (isBinaryFileName(file)) {
+            return new BinaryTermIndexWriter(file);
+        } else {
+            return new TermIndexWriter(file);
+        }
+    }
+    
+    /**
+     * Test if the given file contains a term index in binary format. Reads
+     * the magic number at the start of the file.
+     * 
+     * @param file
+     * @return
+     * @throws java.io.IOException 
+     */
+    public static boolean isBinary(File file) throws java.io.IOException {
+        
+        byte[] header = new byte[MAGIC.length];
+        try (InputStream in = FileSystem.openFile(file)) {
+            int offset = 0;
+            while (offset < header.length) {
+                int count = in.read(header, offset, header.length - offset);
+                if (count < 0) {
+                    return false;
+                }
+                offset += count;
+            }
+        }
+        return Arrays.equals(header, MAGIC);
+    }
+    
+    public static boolean isBinaryFileName(File file) {
+        
+        String name = file.getName();
+        return (name.endsWith(BINARY_SUFFIX)) || (name.endsWith(BINARY_SUFFIX + ".gz"));
+    }
+    
+    /**
+     * Read and validate the file header.
+     * 
+     * @param in
+     * @throws java.io.IOException 
+     */
+    public static void readHeader(DataInputStream in) throws java.io.IOException {
+        
+        byte[] header = new byte[MAGIC.length];
+        in.readFully(header);
+        if (!Arrays.equals(header, MAGIC)) {
+            throw new java.io.IOException("Not a binary term index file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new java.io.IOException("Unsupported term index version " + version);
+        }
+    }
+    
+    /**
+     * Read variable-length encoded integer. Returns -1 if the end of the
+     * stream is reached before the first byte.
+     * 
+     * @param in
+     * @return
+     * @throws java.io.IOException 
+     */
+    public static int readVarInt(InputStream in) throws java.io.IOException {
+        
+        int value = 0;
+        int shift = 0;
+        int b;
+        while ((b = in.read()) >= 0x80) {
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        if (b < 0) {
+            if (shift == 0) {
+                return -1;
+            }
+            throw new java.io.EOFException();
+        }
+        return value | (b << shift);
+    }
+    
+    public static void writeHeader(DataOutputStream out) throws java.io.IOException {
+        
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+    }
+    
+    /**
+     * Write a non-negative integer as variable-length encoded integer.
+     * 
+     * @param out
+     * @param value
+     * @throws java.io.IOException 
+     */
+    public static void writeVarInt(DataOutputStream out, int value) throws java.io.IOException {
+        
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
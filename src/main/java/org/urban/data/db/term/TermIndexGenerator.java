@@ -17,111 +17,194 @@ package org.urban.data.db.term;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.nio.file.CopyOption;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.urban.data.core.io.FileListReader;
 import org.urban.data.core.value.ValueCounter;
-import org.urban.data.core.profiling.datatype.ValueTypeFactory;
 import org.urban.data.core.value.DefaultValueTransformer;
 import org.urban.data.core.set.HashIDSet;
-import org.urban.data.core.io.FileSystem;
 import org.urban.data.core.set.IDSet;
+import org.urban.data.core.io.FileSystem;
 import org.urban.data.core.util.MemUsagePrinter;
+import org.urban.data.core.util.count.Counter;
 import org.urban.data.db.column.ColumnReader;
-import org.urban.data.db.column.ValueColumnsReaderFactory;
+import org.urban.data.db.column.ColumnReaderFactory;
+import org.urban.data.db.column.PrefetchingColumnReaderFactory;
+import org.urban.data.db.column.ValueHasher;
 
 /**
  * Create a term index file. The output file is tab-delimited and contains three
  * columns: (1) the term identifier, (2) the term, and a comma-separated list of
- * column identifier:count pairs.
+ * column identifier:count pairs. Alternatively, the index can be written in
+ * binary format (see TermIndexFormat).
  * 
  * @author Heiko Mueller <heiko.mueller@nyu.edu>
  */
 public class TermIndexGenerator {
 
+    /**
+     * Default maximum number of run files that are merged in a single pass.
+     */
+    public static final int DEFAULT_MERGE_FAN_IN = 64;
+
+    /**
+     * Number of column files that are read ahead for each scan thread when
+     * running on a list of files.
+     */
+    public static final int PREFETCH_PER_THREAD = 4;
+
     private class IOTerm {
 
-        private final IDSet _columns;
+        private final int[] _columns;
         private final String _term;
 
-        public IOTerm(String term, IDSet columns) {
+        public IOTerm(String term, int[] columns) {
             
             _term = term;
             _columns = columns;
         }
 
-        public IDSet columns() {
+        /**
+         * Sorted list of column identifier.
+         * 
+         * @return 
+         */
+        public int[] columns() {
 
             return _columns;
         }
         
         public IOTerm merge(IOTerm t) {
             
-            return new IOTerm(_term, _columns.union(t.columns()));
+            final int[] colI = _columns;
+            final int[] colJ = t.columns();
+            int[] columns = new int[colI.length + colJ.length];
+            int idxI = 0;
+            int idxJ = 0;
+            int len = 0;
+            while ((idxI < colI.length) && (idxJ < colJ.length)) {
+                if (colI[idxI] < colJ[idxJ]) {
+                    columns[len++] = colI[idxI++];
+                } else if (colI[idxI] > colJ[idxJ]) {
+                    columns[len++] = colJ[idxJ++];
+                } else {
+                    columns[len++] = colI[idxI++];
+                    idxJ++;
+                }
+            }
+            while (idxI < colI.length) {
+                columns[len++] = colI[idxI++];
+            }
+            while (idxJ < colJ.length) {
+                columns[len++] = colJ[idxJ++];
+            }
+            return new IOTerm(_term, Arrays.copyOf(columns, len));
         }
 
-        public String term() {
-
-            return _term;
+        /**
+         * Remove all columns in the given set from the column list.
+         * 
+         * @param columns
+         * @return 
+         */
+        public IOTerm remove(IDSet columns) {
+            
+            if (columns.isEmpty()) {
+                return this;
+            }
+            int[] values = new int[_columns.length];
+            int len = 0;
+            for (int columnId : _columns) {
+                if (!columns.contains(columnId)) {
+                    values[len++] = columnId;
+                }
+            }
+            return new IOTerm(_term, Arrays.copyOf(values, len));
         }
 
-        public void write(PrintWriter out) {
+        public String term() {
 
-            out.println(
-                    this.term() + "\t" +
-                    _columns.toIntString()
-            );
+            return _term;
         }
     }
 
-    private class TermFileMerger {
+    /**
+     * Merge a set of sorted run files using a k-way heap merge. Terms that
+     * occur in multiple runs are combined into a single term with the union
+     * of their column sets. Merged terms are passed to a term consumer. Term
+     * identifier are assigned in order of the merged terms.
+     */
+    private class TermRunMerger {
     
-        public int merge(TermSetIterator reader1, TermSetIterator reader2, OutputStream os) throws java.io.IOException {
+        public int merge(
+                List<File> runs,
+                TermConsumer consumer
+        ) throws java.io.IOException {
 
-            int lineCount = 0;
-            
-            try (PrintWriter out = new PrintWriter(os)) {
-                while ((!reader1.done()) && (!reader2.done())) {
-                    IOTerm t1 = reader1.term();
-                    IOTerm t2 = reader2.term();
-                    int comp = t1.term().compareTo(t2.term());
-                    if (comp < 0) {
-                        t1.write(out);
-                        reader1.next();
-                    } else if (comp > 0) {
-                        t2.write(out);
-                        reader2.next();
-                    } else {
-                        t1.merge(t2).write(out);
-                        reader1.next();
-                        reader2.next();
+            PriorityQueue<TermSetIterator> queue = new PriorityQueue<>(
+                    Math.max(1, runs.size()),
+                    new Comparator<TermSetIterator>() {
+                        @Override
+                        public int compare(TermSetIterator r1, TermSetIterator r2) {
+                            return r1.term().term().compareTo(r2.term().term());
+                        }
                     }
-                    lineCount++;
-                }
-                while (!reader1.done()) {
-                    reader1.term().write(out);
-                    reader1.next();
-                    lineCount++;
+            );
+            for (File file : runs) {
+                TermFileReader reader = new TermFileReader(file);
+                if (!reader.done()) {
+                    queue.add(reader);
                 }
-                while (!reader2.done()) {
-                    reader2.term().write(out);
-                    reader2.next();
-                    lineCount++;
+            }
+
+            consumer.open();
+            
+            int termCount = 0;
+            while (!queue.isEmpty()) {
+                TermSetIterator reader = queue.poll();
+                IOTerm term = reader.term();
+                this.advance(reader, queue);
+                while ((!queue.isEmpty()) && (queue.peek().term().term().equals(term.term()))) {
+                    TermSetIterator next = queue.poll();
+                    term = term.merge(next.term());
+                    this.advance(next, queue);
                 }
+                consumer.consume(
+                        new Term(
+                                termCount,
+                                term.term(),
+                                new HashIDSet(term.columns())
+                        )
+                );
+                termCount++;
+            }
+            
+            consumer.close();
+            
+            return termCount;
+        }
+        
+        private void advance(
+                TermSetIterator reader,
+                PriorityQueue<TermSetIterator> queue
+        ) throws java.io.IOException {
+            
+            reader.next();
+            if (!reader.done()) {
+                queue.add(reader);
             }
-            return lineCount;
         }
     }
 
@@ -132,24 +215,22 @@ public class TermIndexGenerator {
         public IOTerm term();
     }
     
+    /**
+     * Iterator over the terms in a run file. Run files are written in binary
+     * term index format.
+     */
     private class TermFileReader implements TermSetIterator {
     
-        private BufferedReader _in = null;
+        private BinaryTermIndexReader _in = null;
         private IOTerm _term = null;
-        private final ValueTypeFactory _typeFactory = new ValueTypeFactory();
         
-        public TermFileReader(InputStream is) throws java.io.IOException {
+        public TermFileReader(File file) throws java.io.IOException {
 
-            _in = new BufferedReader(new InputStreamReader(is));
+            _in = new BinaryTermIndexReader(file);
 
             this.readNext();
         }
 
-        public TermFileReader(File file) throws java.io.IOException {
-
-            this(FileSystem.openFile(file));
-        }
-
         @Override
         public boolean done() {
 
@@ -166,13 +247,8 @@ public class TermIndexGenerator {
 
         private void readNext() throws java.io.IOException {
 
-            String line = _in.readLine();
-            if (line != null) {
-                String[] tokens = line.split("\t");
-                _term = new IOTerm(
-                        tokens[0],
-                        new HashIDSet(tokens[1].split((",")))
-                );
+            if (_in.readNext()) {
+                _term = new IOTerm(_in.term(), _in.columns());
             } else {
                 _term = null;
                 _in.close();
@@ -187,104 +263,442 @@ public class TermIndexGenerator {
         }
     }
     
-    private class TermSetReader implements TermSetIterator {
-
-        private final ArrayList<String> _terms;
-        private final HashMap<String, HashIDSet> _termIndex;
-        private int _readIndex;
+    /**
+     * Iterator over the terms in an existing term index file in text or
+     * binary format. Keeps the identifier of the current term. Ensures that
+     * the terms in the file are sorted.
+     */
+    private class IndexFileReader implements TermSetIterator {
+    
+        private BinaryTermIndexReader _binary = null;
+        private BufferedReader _text = null;
+        private IOTerm _term = null;
+        private int _termId = -1;
         
-        public TermSetReader(
-                ArrayList<String> terms,
-                HashMap<String, HashIDSet> termIndex
-        ) {
-            _terms = terms;
-            _termIndex = termIndex;
+        public IndexFileReader(File file) throws java.io.IOException {
+
+            if (TermIndexFormat.isBinary(file)) {
+                _binary = new BinaryTermIndexReader(file);
+            } else {
+                _text = FileSystem.openReader(file);
+            }
+
+            this.readNext();
+        }
+
+        public void close() throws java.io.IOException {
             
-            _readIndex = 0;
+            if (_binary != null) {
+                _binary.close();
+                _binary = null;
+            }
+            if (_text != null) {
+                _text.close();
+                _text = null;
+            }
         }
         
         @Override
         public boolean done() {
 
-            return (_readIndex >= _terms.size());
+            return (_term == null);
         }
 
         @Override
-        public void next() {
-            
-            _readIndex++;
+        public void next() throws java.io.IOException {
+
+            if (_term != null) {
+                IOTerm previous = _term;
+                this.readNext();
+                if ((_term != null) && (previous.term().compareTo(_term.term()) >= 0)) {
+                    throw new java.io.IOException("Term index not sorted at term " + _termId);
+                }
+            }
+        }
+
+        private void readNext() throws java.io.IOException {
+
+            if (_binary != null) {
+                if (_binary.readNext()) {
+                    _termId = _binary.termId();
+                    _term = new IOTerm(_binary.term(), _binary.columns());
+                    return;
+                }
+            } else if (_text != null) {
+                String line = _text.readLine();
+                if (line != null) {
+                    String[] tokens = line.split("\t");
+                    String[] values = tokens[2].split(",");
+                    int[] columns = new int[values.length];
+                    for (int iCol = 0; iCol < values.length; iCol++) {
+                        columns[iCol] = Integer.parseInt(values[iCol]);
+                    }
+                    Arrays.sort(columns);
+                    _termId = Integer.parseInt(tokens[0]);
+                    _term = new IOTerm(tokens[1], columns);
+                    return;
+                }
+            }
+            _term = null;
+            _termId = -1;
+            this.close();
         }
 
         @Override
         public IOTerm term() {
 
-            String term = _terms.get(_readIndex);
-            return new IOTerm(term, _termIndex.get(term));
+            return _term;
+        }
+        
+        public int termId() {
+            
+            return _termId;
         }
     }
+    
+    /**
+     * Set of sorted run files in a temporary directory. Each run contains the
+     * terms of one spilled term buffer in lexicographic order.
+     */
+    private class TermRunSet {
+        
+        private final File _directory;
+        private final ArrayList<File> _files = new ArrayList<>();
+        private int _runCount = 0;
+        
+        public TermRunSet(File directory) {
+            
+            _directory = directory;
+        }
+        
+        public synchronized void add(
+                TermIndexBuffer termIndex
+        ) throws java.io.IOException {
+            
+            File file = this.newRunFile();
+            BinaryTermIndexWriter out = new BinaryTermIndexWriter(file);
+            out.open();
+            int termId = 0;
+            for (String term : termIndex.sortedTerms()) {
+                int[] columns = termIndex.columns(term).toArray();
+                Arrays.sort(columns);
+                out.write(termId++, term, columns);
+            }
+            out.close();
+            _files.add(file);
+            System.out.println("RUN " + _files.size() + " HAS " + termIndex.size() + " ROWS.");
 
-    public void createIndex(
-            ValueColumnsReaderFactory readers,
-            int bufferSize,
-            File outputFile
-    ) throws java.io.IOException {
+            new MemUsagePrinter().print("MEMORY USAGE");
+        }
+        
+        public void delete() throws java.io.IOException {
+            
+            File[] files = _directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            Files.deleteIfExists(_directory.toPath());
+        }
+        
+        public List<File> files() {
+            
+            return _files;
+        }
+        
+        public synchronized File newRunFile() {
+            
+            return new File(
+                    _directory,
+                    "run." + (_runCount++) + TermIndexFormat.BINARY_SUFFIX
+            );
+        }
+    }
+
+    private final int _mergeFanIn;
+    
+    /**
+     * Initialize the maximum number of sorted runs that are merged in a
+     * single pass.
+     * 
+     * @param mergeFanIn 
+     */
+    public TermIndexGenerator(int mergeFanIn) {
         
-        DefaultValueTransformer transformer = new DefaultValueTransformer();
-        
-        HashMap<String, HashIDSet> termIndex = new HashMap<>();
-        int columnCount = 0;
-        while (readers.hasNext()) {
-            ColumnReader reader = readers.next();
-            columnCount++;
-            HashSet<String> columnValues = new HashSet<>();
-            while (reader.hasNext()) {
-                ValueCounter colVal = reader.next();
-                if (!colVal.isEmpty()) {
-                    String term = transformer.transform(colVal.getText());
-                    if (!columnValues.contains(term)) {
-                        columnValues.add(term);
+        if (mergeFanIn < 2) {
+            throw new IllegalArgumentException("Invalid merge fan-in " + mergeFanIn);
+        }
+        _mergeFanIn = mergeFanIn;
+    }
+    
+    public TermIndexGenerator() {
+        
+        this(DEFAULT_MERGE_FAN_IN);
+    }
+    
+    /**
+     * Worker that reads columns from a shared reader factory. Each worker
+     * maintains its own partial term index. The partial index is written as a
+     * sorted run whenever the spill condition is satisfied.
+     */
+    private class ColumnScanTask implements Callable<Void> {
+
+        private final Counter _columnCount;
+        private final HashIDSet _columnIds;
+        private final ColumnReaderFactory _readers;
+        private final TermRunSet _runs;
+        private final SpillCondition _spillCondition;
+
+        public ColumnScanTask(
+                ColumnReaderFactory readers,
+                SpillCondition spillCondition,
+                Counter columnCount,
+                HashIDSet columnIds,
+                TermRunSet runs
+        ) {
+            _readers = readers;
+            _spillCondition = spillCondition;
+            _columnCount = columnCount;
+            _columnIds = columnIds;
+            _runs = runs;
+        }
+
+        @Override
+        public Void call() throws java.io.IOException {
+
+            DefaultValueTransformer transformer = new DefaultValueTransformer();
+
+            TermIndexBuffer termIndex = new TermIndexBuffer();
+            ColumnReader reader;
+            while ((reader = this.nextReader()) != null) {
+                int columnCount = _columnCount.inc();
+                HashSet<String> columnValues = new HashSet<>();
+                try {
+                    while (reader.hasNext()) {
+                        ValueCounter colVal = reader.next();
+                        if (!colVal.isEmpty()) {
+                            String term = transformer.transform(colVal.getText());
+                            if (!columnValues.contains(term)) {
+                                columnValues.add(term);
+                            }
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+                synchronized (_columnIds) {
+                    _columnIds.add(reader.columnId());
+                }
+                for (String term : columnValues) {
+                    termIndex.add(term, reader.columnId());
+                    if (_spillCondition.isSatisfied(termIndex)) {
+                        System.out.println("WRITE AT COLUMN " + columnCount);
+                        _runs.add(termIndex);
+                        termIndex = new TermIndexBuffer();
                     }
                 }
             }
-            for (String term : columnValues) {
-                if (!termIndex.containsKey(term)) {
-                    termIndex.put(term, new HashIDSet(reader.columnId()));
+            if (!termIndex.isEmpty()) {
+                _runs.add(termIndex);
+            }
+            return null;
+        }
+
+        private ColumnReader nextReader() {
+
+            // Stop reading columns if the scan has been cancelled.
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            synchronized (_readers) {
+                if (_readers.hasNext()) {
+                    return _readers.next();
                 } else {
-                    termIndex.get(term).add(reader.columnId());
-                }
-                if (termIndex.size() > bufferSize) {
-                    System.out.println("WRITE AT COLUMN " + columnCount);
-                    writeTermIndex(termIndex, outputFile);
-                    termIndex = new HashMap<>();
+                    return null;
                 }
             }
         }
-        if (!termIndex.isEmpty()) {
-            writeTermIndex(termIndex, outputFile);
+    }
+
+    /**
+     * Read all columns in the given reader factory and write sorted runs to a
+     * temporary directory within the given working directory. Adds the
+     * identifier of all columns that were read to the given set.
+     * 
+     * @param readers
+     * @param spillCondition
+     * @param threads
+     * @param workingDir
+     * @param columnIds
+     * @return
+     * @throws java.io.IOException 
+     */
+    private TermRunSet scanColumns(
+            ColumnReaderFactory readers,
+            SpillCondition spillCondition,
+            int threads,
+            File workingDir,
+            HashIDSet columnIds
+    ) throws java.io.IOException {
+        
+        Counter columnCount = new Counter(0);
+        
+        TermRunSet runs = new TermRunSet(
+                Files.createTempDirectory(workingDir.toPath(), "runs").toFile()
+        );
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> tasks = new ArrayList<>();
+        for (int iThread = 0; iThread < threads; iThread++) {
+            tasks.add(
+                    executor.submit(
+                            new ColumnScanTask(
+                                    readers,
+                                    spillCondition,
+                                    columnCount,
+                                    columnIds,
+                                    runs
+                            )
+                    )
+            );
         }
-        // Add unique term id and term data type information to terms in
-        // current output file.
-        File tmpFile = File.createTempFile("tmp", outputFile.getName());
-        try (
-                BufferedReader in = FileSystem.openReader(outputFile);
-                PrintWriter out = FileSystem.openPrintWriter(tmpFile)
-        ) {
-            String line;
-            int termId = 0;
-            while ((line = in.readLine()) != null) {
-                String[] tokens = line.split("\t");
-                out.println(termId + "\t" + tokens[0] + "\t" + tokens[1]);
-                termId++;
+        executor.shutdown();
+        boolean success = false;
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            success = true;
+        } catch (java.lang.InterruptedException ex) {
+            throw new java.io.InterruptedIOException(ex.getMessage());
+        } catch (java.util.concurrent.ExecutionException ex) {
+            if (ex.getCause() instanceof java.io.IOException) {
+                throw (java.io.IOException)ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            if (!success) {
+                // Stop the remaining workers before removing their runs.
+                executor.shutdownNow();
+                try {
+                    executor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (java.lang.InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                runs.delete();
             }
         }
-        FileSystem.copy(tmpFile, outputFile);
-        Files.delete(tmpFile.toPath());
+        
+        return runs;
+    }
+    
+    /**
+     * Create term index for all columns in the given reader factory. Columns
+     * are read and tokenized by the given number of parallel threads. Each
+     * thread keeps its own term buffer. The spill condition is evaluated for
+     * each of these buffers individually. Sorted runs are written to a
+     * temporary directory within the given working directory. The final
+     * merge result is passed to the given term consumer. The resulting term
+     * stream is independent of the number of threads.
+     * 
+     * @param readers
+     * @param spillCondition
+     * @param threads
+     * @param workingDir
+     * @param consumer
+     * @throws java.io.IOException 
+     */
+    public void createIndex(
+            ColumnReaderFactory readers,
+            SpillCondition spillCondition,
+            int threads,
+            File workingDir,
+            TermConsumer consumer
+    ) throws java.io.IOException {
+        
+        TermRunSet runs = this.scanColumns(
+                readers,
+                spillCondition,
+                threads,
+                workingDir,
+                new HashIDSet()
+        );
+        
+        try {
+            this.mergeRuns(runs, consumer);
+        } finally {
+            runs.delete();
+        }
+    }
+    
+    /**
+     * Create term index file. Sorted runs are written to a temporary
+     * directory next to the output file. Output files with suffix .bin (or
+     * .bin.gz) are written in binary format. All other files are written as
+     * tab-delimited text files.
+     * 
+     * @param readers
+     * @param spillCondition
+     * @param threads
+     * @param outputFile
+     * @throws java.io.IOException 
+     */
+    public void createIndex(
+            ColumnReaderFactory readers,
+            SpillCondition spillCondition,
+            int threads,
+            File outputFile
+    ) throws java.io.IOException {
+        
+        this.createIndex(
+                readers,
+                spillCondition,
+                threads,
+                outputFile.getAbsoluteFile().getParentFile(),
+                TermIndexFormat.getWriter(outputFile)
+        );
+    }
+    
+    /**
+     * Create term index using a buffer of (bufferSize / threads) terms for
+     * each thread.
+     * 
+     * @param readers
+     * @param bufferSize
+     * @param threads
+     * @param outputFile
+     * @throws java.io.IOException 
+     */
+    public void createIndex(
+            ColumnReaderFactory readers,
+            int bufferSize,
+            int threads,
+            File outputFile
+    ) throws java.io.IOException {
+        
+        this.createIndex(
+                readers,
+                new TermCountSpillCondition(Math.max(1, bufferSize / threads)),
+                threads,
+                outputFile
+        );
+    }
+    
+    public void createIndex(
+            ColumnReaderFactory readers,
+            int bufferSize,
+            File outputFile
+    ) throws java.io.IOException {
+        
+        this.createIndex(readers, bufferSize, 1, outputFile);
     }
     
     public void run(
             List<File> files,
-            int bufferSize,
+            SpillCondition spillCondition,
             int hashLengthThreshold,
+            int threads,
             File outputFile
     ) throws java.io.IOException {
         // Create the directory for the output file if it does not exist.
@@ -293,12 +707,73 @@ public class TermIndexGenerator {
             outputFile.delete();
         }
         
-        this.createIndex(
-                new ValueColumnsReaderFactory(files, hashLengthThreshold),
-                bufferSize,
+        try (PrefetchingColumnReaderFactory readers = new PrefetchingColumnReaderFactory(
+                files,
+                hashLengthThreshold,
+                PREFETCH_PER_THREAD * threads,
+                threads
+        )) {
+            this.createIndex(readers, spillCondition, threads, outputFile);
+        }
+    }
+    
+    /**
+     * Create term index for all given column files and pass the merged terms
+     * directly to the given consumer. No term index file is written unless
+     * the consumer does so. Sorted runs are written to a temporary directory
+     * within the given working directory.
+     * 
+     * @param files
+     * @param spillCondition
+     * @param hashLengthThreshold
+     * @param threads
+     * @param workingDir
+     * @param consumer
+     * @throws java.io.IOException 
+     */
+    public void run(
+            List<File> files,
+            SpillCondition spillCondition,
+            int hashLengthThreshold,
+            int threads,
+            File workingDir,
+            TermConsumer consumer
+    ) throws java.io.IOException {
+        
+        try (PrefetchingColumnReaderFactory readers = new PrefetchingColumnReaderFactory(
+                files,
+                hashLengthThreshold,
+                PREFETCH_PER_THREAD * threads,
+                threads
+        )) {
+            this.createIndex(readers, spillCondition, threads, workingDir, consumer);
+        }
+    }
+    
+    public void run(
+            List<File> files,
+            int bufferSize,
+            int hashLengthThreshold,
+            int threads,
+            File outputFile
+    ) throws java.io.IOException {
+        this.run(
+                files,
+                new TermCountSpillCondition(Math.max(1, bufferSize / threads)),
+                hashLengthThreshold,
+                threads,
                 outputFile
         );
     }
+    
+    public void run(
+            List<File> files,
+            int bufferSize,
+            int hashLengthThreshold,
+            File outputFile
+    ) throws java.io.IOException {
+        this.run(files, bufferSize, hashLengthThreshold, 1, outputFile);
+    }
 
         
     public void run(
@@ -309,75 +784,357 @@ public class TermIndexGenerator {
         this.run(files, bufferSize, -1, outputFile);
     }
     
-    private void writeTermIndex(
-            HashMap<String, HashIDSet> termIndex,
-            File outputFile
+    /**
+     * Merge all run files and pass the result to the given consumer. If the
+     * number of runs exceeds the merge fan-in, groups of runs are first merged
+     * into intermediate runs until the remaining runs can be merged in a
+     * single pass. Term identifier are assigned in the final pass.
+     * 
+     * @param runs
+     * @param consumer
+     * @throws java.io.IOException 
+     */
+    private void mergeRuns(
+            TermRunSet runs,
+            TermConsumer consumer
     ) throws java.io.IOException {
-
-        ArrayList<String> terms = new ArrayList<>(termIndex.keySet());
-        Collections.sort(terms);
-	
-        if (!outputFile.exists()) {
-            try (PrintWriter out = FileSystem.openPrintWriter(outputFile)) {
-                for (String term : terms) {
-                    HashIDSet columns = termIndex.get(term);
-                    out.println(
-                            term + "\t" +
-                            columns.toIntString()
-                    );
+        
+        TermRunMerger merger = new TermRunMerger();
+        
+        List<File> files = this.reduceRuns(runs, merger, _mergeFanIn);
+        
+        System.out.println("MERGE " + files.size() + " RUNS INTO OUTPUT.");
+        int count = merger.merge(files, consumer);
+        System.out.println("MERGED OUTPUT HAS " + count + " TERMS.");
+    }
+    
+    /**
+     * Merge groups of run files into intermediate runs until the number of
+     * remaining runs does not exceed the given fan-in.
+     * 
+     * @param runs
+     * @param merger
+     * @param fanIn
+     * @return
+     * @throws java.io.IOException 
+     */
+    private List<File> reduceRuns(
+            TermRunSet runs,
+            TermRunMerger merger,
+            int fanIn
+    ) throws java.io.IOException {
+        
+        List<File> files = runs.files();
+        while (files.size() > fanIn) {
+            System.out.println("MERGE " + files.size() + " RUNS.");
+            ArrayList<File> mergedFiles = new ArrayList<>();
+            for (int iRun = 0; iRun < files.size(); iRun += fanIn) {
+                List<File> group = files.subList(
+                        iRun,
+                        Math.min(iRun + fanIn, files.size())
+                );
+                if (group.size() == 1) {
+                    mergedFiles.add(group.get(0));
+                    continue;
+                }
+                File file = runs.newRunFile();
+                merger.merge(group, new BinaryTermIndexWriter(file));
+                for (File run : group) {
+                    Files.delete(run.toPath());
+                }
+                mergedFiles.add(file);
+            }
+            files = mergedFiles;
+        }
+        return files;
+    }
+    
+    /**
+     * Get the maximum term identifier in the given term index file. Returns
+     * -1 if the file is empty.
+     * 
+     * @param file
+     * @return
+     * @throws java.io.IOException 
+     */
+    private static int maxTermId(File file) throws java.io.IOException {
+        
+        int maxId = -1;
+        if (TermIndexFormat.isBinary(file)) {
+            try (BinaryTermIndexReader in = new BinaryTermIndexReader(file)) {
+                while (in.readNext()) {
+                    maxId = Math.max(maxId, in.termId());
                 }
             }
-            System.out.println("INITIAL FILE HAS " + termIndex.size() + " ROWS.");
         } else {
-            System.out.println("MERGE " + termIndex.size() + " TERMS.");
-            File tmpFile = File.createTempFile("tmp", outputFile.getName());
-            int count = new TermFileMerger().merge(new TermFileReader(outputFile),
-                    new TermSetReader(terms, termIndex),
-                    FileSystem.openOutputFile(tmpFile)
-            );
-            Files.copy(
-                    tmpFile.toPath(),
-                    outputFile.toPath(),
-                    new CopyOption[]{StandardCopyOption.REPLACE_EXISTING}
+            try (BufferedReader in = FileSystem.openReader(file)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int pos = line.indexOf('\t');
+                    maxId = Math.max(maxId, Integer.parseInt(line.substring(0, pos)));
+                }
+            }
+        }
+        return maxId;
+    }
+    
+    /**
+     * Update an existing term index. The new columns in the given reader
+     * factory are added to the index and all columns in the removed set are
+     * removed from the index. Columns in the reader factory that are already
+     * contained in the index replace the existing column.
+     * 
+     * Only the new columns are read and written as sorted runs. The runs are
+     * then merged with the existing index in a single pass. Terms in the
+     * existing index keep their identifier. New terms are assigned
+     * identifier in order starting after the maximum identifier in the
+     * existing index. Terms that no longer occur in any column are dropped.
+     * The updated index is passed to the given consumer in the same order
+     * as the existing index, i.e., sorted by term. The consumer must not
+     * write to the existing index file.
+     * 
+     * Returns the number of terms in the updated index.
+     * 
+     * @param indexFile
+     * @param readers
+     * @param removedColumns
+     * @param spillCondition
+     * @param threads
+     * @param workingDir
+     * @param consumer
+     * @return
+     * @throws java.io.IOException 
+     */
+    public int updateIndex(
+            File indexFile,
+            ColumnReaderFactory readers,
+            IDSet removedColumns,
+            SpillCondition spillCondition,
+            int threads,
+            File workingDir,
+            TermConsumer consumer
+    ) throws java.io.IOException {
+        
+        int nextTermId = maxTermId(indexFile) + 1;
+        
+        HashIDSet replacedColumns = new HashIDSet();
+        TermRunSet runs = this.scanColumns(
+                readers,
+                spillCondition,
+                threads,
+                workingDir,
+                replacedColumns
+        );
+        replacedColumns.add(removedColumns);
+        
+        try {
+            return this.mergeIndex(
+                    indexFile,
+                    runs,
+                    replacedColumns,
+                    nextTermId,
+                    consumer
             );
-            Files.delete(tmpFile.toPath());
-            System.out.println("MERGED FILE HAS " + count + " ROWS.");
+        } finally {
+            runs.delete();
+        }
+    }
+    
+    /**
+     * Merge the sorted runs with the existing index and pass the result to
+     * the given consumer (see updateIndex). Returns the number of terms in
+     * the updated index.
+     */
+    private int mergeIndex(
+            File indexFile,
+            TermRunSet runs,
+            IDSet replacedColumns,
+            int nextTermId,
+            TermConsumer consumer
+    ) throws java.io.IOException {
+        
+        // Leave one input of the final merge for the existing index.
+        TermRunMerger merger = new TermRunMerger();
+        List<File> files = this.reduceRuns(
+                runs,
+                merger,
+                Math.max(2, _mergeFanIn - 1)
+        );
+        
+        System.out.println("MERGE " + files.size() + " RUNS INTO INDEX.");
+
+        IndexFileReader index = new IndexFileReader(indexFile);
+        PriorityQueue<TermSetIterator> queue = new PriorityQueue<>(
+                files.size() + 1,
+                new Comparator<TermSetIterator>() {
+                    @Override
+                    public int compare(TermSetIterator r1, TermSetIterator r2) {
+                        return r1.term().term().compareTo(r2.term().term());
+                    }
+                }
+        );
+        if (!index.done()) {
+            queue.add(index);
+        }
+        for (File file : files) {
+            TermFileReader reader = new TermFileReader(file);
+            if (!reader.done()) {
+                queue.add(reader);
+            }
         }
         
-        new MemUsagePrinter().print("MEMORY USAGE");
+        consumer.open();
+        
+        int termCount = 0;
+        int newTermCount = 0;
+        int droppedTermCount = 0;
+        try {
+            while (!queue.isEmpty()) {
+                String value = queue.peek().term().term();
+                IOTerm term = null;
+                int termId = -1;
+                while ((!queue.isEmpty()) && (queue.peek().term().term().equals(value))) {
+                    TermSetIterator reader = queue.poll();
+                    IOTerm next = reader.term();
+                    if (reader == index) {
+                        termId = index.termId();
+                        next = next.remove(replacedColumns);
+                    }
+                    if (term == null) {
+                        term = next;
+                    } else {
+                        term = term.merge(next);
+                    }
+                    merger.advance(reader, queue);
+                }
+                if (term.columns().length == 0) {
+                    droppedTermCount++;
+                    continue;
+                }
+                if (termId == -1) {
+                    termId = nextTermId++;
+                    newTermCount++;
+                }
+                consumer.consume(
+                        new Term(
+                                termId,
+                                term.term(),
+                                new HashIDSet(term.columns())
+                        )
+                );
+                termCount++;
+            }
+        } finally {
+            index.close();
+        }
+        
+        consumer.close();
+
+        System.out.println("UPDATED INDEX HAS " + termCount + " TERMS.");
+        System.out.println("NEW TERMS " + newTermCount + ", DROPPED TERMS " + droppedTermCount);
+        
+        return termCount;
+    }
+    
+    /**
+     * Get spill condition from a buffer size specification. The buffer size
+     * is either a number of terms or a number of bytes followed by one of the
+     * units K, M, or G. A byte-based size may be followed by ':' and a heap
+     * watermark, e.g., 2G:0.8. The size is divided evenly between threads.
+     * 
+     * @param value
+     * @param threads
+     * @return 
+     */
+    public static SpillCondition getSpillCondition(String value, int threads) {
+        
+        String size = value;
+        double heapWatermark = -1;
+        int pos = value.indexOf(":");
+        if (pos != -1) {
+            size = value.substring(0, pos);
+            heapWatermark = Double.parseDouble(value.substring(pos + 1));
+        }
+        long unit;
+        switch (size.substring(size.length() - 1).toUpperCase()) {
+            case "K":
+                unit = 1024L;
+                break;
+            case "M":
+                unit = 1024L * 1024L;
+                break;
+            case "G":
+                unit = 1024L * 1024L * 1024L;
+                break;
+            default:
+                return new TermCountSpillCondition(
+                        Math.max(1, Integer.parseInt(size) / threads)
+                );
+        }
+        long maxBytes = Long.parseLong(size.substring(0, size.length() - 1)) * unit;
+        return new MemorySpillCondition(maxBytes / threads, heapWatermark);
     }
     
     private final static String COMMAND =
 	    "Usage:\n" +
 	    "  <column-file-or-dir>\n" +
-	    "  <mem-buffer-size>\n" +
+	    "  <mem-buffer-size> [<terms> | <bytes>{K|M|G}{:<heap-watermark>}]\n" +
             "  <hash-length-threshold>\n" +
-	    "  <output-file>";
+	    "  <output-file> [.bin suffix for binary format]\n" +
+            "  {<threads>}\n" +
+            "  {<merge-fan-in>}\n" +
+            "  {<hash-mapping-file>}";
     
     public static void main(String[] args) {
         
         System.out.println("Term Index Generator (Version 0.2.2)");
 
-        if (args.length != 4) {
+        if ((args.length < 4) || (args.length > 7)) {
             System.out.println(COMMAND);
             System.exit(-1);
         }
 
         File inputDirectory = new File(args[0]);
-        int bufferSize = Integer.parseInt(args[1]);
         int hashLengthThreshold = Integer.parseInt(args[2]);
         File outputFile = new File(args[3]);
+        int threads = 1;
+        if (args.length >= 5) {
+            threads = Integer.parseInt(args[4]);
+        }
+        int mergeFanIn = DEFAULT_MERGE_FAN_IN;
+        if (args.length >= 6) {
+            mergeFanIn = Integer.parseInt(args[5]);
+        }
+        File mappingFile = null;
+        if (args.length == 7) {
+            mappingFile = new File(args[6]);
+        }
+        ValueHasher.warnIfNoMappingFile(hashLengthThreshold, mappingFile);
         
         try {
-            new TermIndexGenerator().run(
+            // Write the mapping of hashed values to a side file.
+            if (mappingFile != null) {
+                ValueHasher.setDefault(
+                        new ValueHasher(
+                                mappingFile,
+                                ValueHasher.DEFAULT_DICTIONARY_SIZE
+                        )
+                );
+            }
+            new TermIndexGenerator(mergeFanIn).run(
                     new FileListReader(".txt").listFiles(inputDirectory),
-                    bufferSize,
+                    getSpillCondition(args[1], threads),
                     hashLengthThreshold,
+                    threads,
                     outputFile
             );
         } catch (java.io.IOException ex) {
             Logger.getGlobal().log(Level.SEVERE, "CREATE TERM INDEX", ex);
+            // System.exit does not run the finally block.
+            ValueHasher.getDefault().close();
             System.exit(-1);
+        } finally {
+            ValueHasher.getDefault().close();
         }
     }
 }
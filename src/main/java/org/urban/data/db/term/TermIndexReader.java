@@ -25,6 +25,7 @@ import org.urban.data.core.set.IdentifiableObjectSet;
 
 /**
  * Read a term index file as a stream.Passes each term to a TermStreamHandler.
+ * Term index files in text and in binary format are supported.
  * 
  * @author Heiko Mueller <heiko.mueller@nyu.edu>
  */
@@ -39,6 +40,13 @@ public class TermIndexReader {
     
     public void read(TermConsumer consumer) throws java.io.IOException {
         
+        if (TermIndexFormat.isBinary(_file)) {
+            try (BinaryTermIndexReader reader = new BinaryTermIndexReader(_file)) {
+                reader.read(consumer);
+            }
+            return;
+        }
+        
         consumer.open();
         
         try (BufferedReader in = FileSystem.openReader(_file)) {
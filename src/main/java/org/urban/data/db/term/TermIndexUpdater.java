@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.term;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.urban.data.core.io.FileListReader;
+import org.urban.data.core.io.FileSystem;
+import org.urban.data.core.set.HashIDSet;
+import org.urban.data.db.column.PrefetchingColumnReaderFactory;
+import org.urban.data.db.column.ValueHasher;
+
+/**
+ * Incrementally update an existing term index with a set of new column files
+ * and a list of removed column identifier. Existing term identifier remain
+ * unchanged and new terms are appended (see TermIndexGenerator.updateIndex).
+ *
+ * The new column files are either a single file or a directory of column
+ * files. Removed columns are given as a comma-separated list of column
+ * identifier. If the output file is the same as the input index the index is
+ * replaced after the update is complete.
+ *
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class TermIndexUpdater {
+
+    private final static String COMMAND =
+            "Usage:\n" +
+            "  <term-index-file>\n" +
+            "  <column-file-or-dir>\n" +
+            "  <mem-buffer-size> [<terms> | <bytes>{K|M|G}{:<heap-watermark>}]\n" +
+            "  <hash-length-threshold>\n" +
+            "  <output-file> [.bin suffix for binary format]\n" +
+            "  {<threads>}\n" +
+            "  {<removed-column-ids>} [comma-separated list or - for none]\n" +
+            "  {<hash-mapping-file>}";
+
+    private static final Logger LOGGER = Logger
+            .getLogger(TermIndexUpdater.class.getName());
+
+    public static void main(String[] args) {
+
+        if ((args.length < 5) || (args.length > 8)) {
+            System.out.println(COMMAND);
+            System.exit(-1);
+        }
+
+        File indexFile = new File(args[0]);
+        File inputDirectory = new File(args[1]);
+        int hashLengthThreshold = Integer.parseInt(args[3]);
+        File outputFile = new File(args[4]);
+        int threads = 1;
+        if (args.length >= 6) {
+            threads = Integer.parseInt(args[5]);
+        }
+        HashIDSet removedColumns = new HashIDSet();
+        if ((args.length >= 7) && (!args[6].equals("-"))) {
+            for (String token : args[6].split(",")) {
+                if (!token.trim().isEmpty()) {
+                    removedColumns.add(Integer.parseInt(token.trim()));
+                }
+            }
+        }
+        File mappingFile = null;
+        if (args.length == 8) {
+            mappingFile = new File(args[7]);
+        }
+        ValueHasher.warnIfNoMappingFile(hashLengthThreshold, mappingFile);
+
+        try {
+            // Write the mapping of hashed values to a side file.
+            if (mappingFile != null) {
+                ValueHasher.setDefault(
+                        new ValueHasher(
+                                mappingFile,
+                                ValueHasher.DEFAULT_DICTIONARY_SIZE
+                        )
+                );
+            }
+            FileSystem.createParentFolder(outputFile);
+            File targetFile = outputFile;
+            if (outputFile.getCanonicalFile().equals(indexFile.getCanonicalFile())) {
+                targetFile = new File(
+                        outputFile.getAbsoluteFile().getParentFile(),
+                        "tmp." + outputFile.getName()
+                );
+            }
+            List<File> files = new ArrayList<>();
+            if (inputDirectory.exists()) {
+                files = new FileListReader(".txt").listFiles(inputDirectory);
+            }
+            try (PrefetchingColumnReaderFactory readers = new PrefetchingColumnReaderFactory(
+                    files,
+                    hashLengthThreshold,
+                    TermIndexGenerator.PREFETCH_PER_THREAD * threads,
+                    threads
+            )) {
+                new TermIndexGenerator().updateIndex(
+                        indexFile,
+                        readers,
+                        removedColumns,
+                        TermIndexGenerator.getSpillCondition(args[2], threads),
+                        threads,
+                        outputFile.getAbsoluteFile().getParentFile(),
+                        TermIndexFormat.getWriter(targetFile)
+                );
+            }
+            if (targetFile != outputFile) {
+                Files.move(
+                        targetFile.toPath(),
+                        outputFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING
+                );
+            }
+        } catch (java.io.IOException ex) {
+            LOGGER.log(Level.SEVERE, "UPDATE TERM INDEX", ex);
+            // System.exit does not run the finally block.
+            ValueHasher.getDefault().close();
+            System.exit(-1);
+        } finally {
+            ValueHasher.getDefault().close();
+        }
+    }
+}
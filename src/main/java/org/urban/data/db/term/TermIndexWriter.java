@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 New York University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.urban.data.db.term;
+
+import java.io.File;
+import java.io.PrintWriter;
+import org.urban.data.core.io.FileSystem;
+
+/**
+ * Write stream of terms to a tab-delimited term index file.
+ * 
+ * @author Heiko Mueller <heiko.mueller@nyu.edu>
+ */
+public class TermIndexWriter implements TermConsumer {
+
+    private final File _file;
+    private PrintWriter _out = null;
+    
+    public TermIndexWriter(File file) {
+        
+        _file = file;
+    }
+    
+    @Override
+    public void close() {
+
+        _out.close();
+        _out = null;
+    }
+
+    @Override
+    public void consume(Term term) {
+
+        term.write(_out);
+    }
+
+    @Override
+    public void open() {
+
+        try {
+            _out = FileSystem.openPrintWriter(_file);
+        } catch (java.io.IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}